@@ -60,6 +60,8 @@ public class Admin {
         Product p = new Product(id, name, category, description, price, quantity);
         catalog.adminAddProduct(p);
         DatabaseConnection.getInstance().insertNewProduct(p);
+        // Through the inventory so the stock is journaled, and replaces any left by an earlier product with this id
+        inventory.resetStock(p.getId(), quantity);
         System.out.println("Added: " + p.getName());
 
     }
@@ -137,7 +139,8 @@ public class Admin {
         if (!qtyStr.isEmpty()) {
             try {
                 int qty = Integer.parseInt(qtyStr);
-                if (qty >= 0) p.setQuantity(qty);
+                // Through the inventory, which journals it and updates the product; reservations are kept
+                if (qty >= 0) inventory.resetStock(p.getId(), qty);
             } catch (NumberFormatException ignored) {
                 System.out.println("Invalid quantity ignored.");
             }
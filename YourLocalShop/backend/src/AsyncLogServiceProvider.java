@@ -0,0 +1,58 @@
+import org.slf4j.ILoggerFactory;
+import org.slf4j.IMarkerFactory;
+import org.slf4j.Logger;
+import org.slf4j.event.Level;
+import org.slf4j.helpers.BasicMarkerFactory;
+import org.slf4j.helpers.NOPMDCAdapter;
+import org.slf4j.spi.MDCAdapter;
+import org.slf4j.spi.SLF4JServiceProvider;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Plugs the async logging pipeline into slf4j. Main selects it through
+ * the slf4j.provider system property, so LoggerFactory.getLogger(X.class)
+ * returns an AsyncLogger.
+ *
+ * Levels: shop.log.level sets the default (INFO), and
+ * shop.log.level.ClassName overrides it for one logger,
+ * e.g. -Dshop.log.level.Webserver=DEBUG
+ */
+public class AsyncLogServiceProvider implements SLF4JServiceProvider, ILoggerFactory {
+    private final Map<String, Logger> loggers = new ConcurrentHashMap<>();
+    private IMarkerFactory markerFactory;
+    private MDCAdapter mdcAdapter;
+    private Level defaultLevel;
+
+    @Override
+    public void initialize() {
+        markerFactory = new BasicMarkerFactory();
+        mdcAdapter = new NOPMDCAdapter();
+        defaultLevel = parseLevel(System.getProperty("shop.log.level"), Level.INFO);
+    }
+
+    @Override
+    public Logger getLogger(String name) {
+        return loggers.computeIfAbsent(name, n -> {
+            Level level = parseLevel(System.getProperty("shop.log.level." + n), defaultLevel);
+            return new AsyncLogger(n, level, AsyncLogWriter.getInstance());
+        });
+    }
+
+    private static Level parseLevel(String value, Level fallback) {
+        if (value == null || value.isBlank()) {
+            return fallback;
+        }
+        try {
+            return Level.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+
+    @Override public ILoggerFactory getLoggerFactory() { return this; }
+    @Override public IMarkerFactory getMarkerFactory() { return markerFactory; }
+    @Override public MDCAdapter getMDCAdapter() { return mdcAdapter; }
+    @Override public String getRequestedApiVersion() { return "2.0.99"; }
+}
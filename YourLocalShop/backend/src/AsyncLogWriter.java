@@ -0,0 +1,201 @@
+import org.slf4j.event.Level;
+import org.slf4j.helpers.MessageFormatter;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background writer behind the AsyncLogger loggers.
+ *
+ * Request threads drop log events into a fixed-size lock-free ring buffer
+ * (multi-producer, single-consumer) and return immediately; one daemon
+ * thread formats them and writes to the console. Message formatting
+ * happens on the writer thread, not the request thread.
+ *
+ * When the buffer is full the policy decides what happens:
+ *   DROP  - the event is discarded and counted (default)
+ *   BLOCK - the caller waits until the writer makes room
+ *
+ * Configured through system properties:
+ *   shop.log.bufferSize  ring size, rounded up to a power of two (default 8192)
+ *   shop.log.policy      DROP or BLOCK
+ */
+public class AsyncLogWriter {
+
+    public enum Policy { DROP, BLOCK }
+
+    private static AsyncLogWriter instance;
+
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    // One log call, captured on the calling thread
+    private record LogEvent(long timestamp, Level level, String loggerName, String threadName,
+                            String message, Object[] args, Throwable throwable) { }
+
+    // Ring buffer: slot i is free for position p when sequences[i] == p,
+    // and holds the event for position p when sequences[i] == p + 1
+    private final int capacity;
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final LogEvent[] events;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head; // only advanced by the writer thread
+
+    private final Policy policy;
+    private final Thread writerThread;
+    private volatile boolean writerIdle;
+    private volatile boolean running = true;
+
+    private final PrintStream out = System.out;
+    private final PrintStream err = System.err;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private long droppedReported;
+
+    private AsyncLogWriter(int requestedSize, Policy policy) {
+        this.capacity = Integer.highestOneBit(Math.max(2, requestedSize - 1)) << 1;
+        this.mask = capacity - 1;
+        this.sequences = new AtomicLongArray(capacity);
+        this.events = new LogEvent[capacity];
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.policy = policy;
+
+        this.writerThread = new Thread(this::drainLoop, "log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    public static synchronized AsyncLogWriter getInstance() {
+        if (instance == null) {
+            int size = Integer.getInteger("shop.log.bufferSize", 8192);
+            Policy policy = Policy.valueOf(System.getProperty("shop.log.policy", Policy.DROP.name()).trim().toUpperCase());
+            instance = new AsyncLogWriter(size, policy);
+        }
+        return instance;
+    }
+
+    // Called from any thread; never takes a lock
+    void publish(Level level, String loggerName, String message, Object[] args, Throwable throwable) {
+        Thread thread = Thread.currentThread();
+        String threadName = thread.getName().isEmpty() ? "virtual-" + thread.threadId() : thread.getName();
+        LogEvent event = new LogEvent(System.currentTimeMillis(), level, loggerName,
+                threadName, message, args, throwable);
+
+        while (!offer(event)) {
+            if (policy == Policy.DROP || !running) {
+                dropped.incrementAndGet();
+                return;
+            }
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(50_000);
+        }
+
+        if (writerIdle) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    private boolean offer(LogEvent event) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    events[index] = event;
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false; // full
+            } else {
+                pos = tail.get(); // another producer took this slot
+            }
+        }
+    }
+
+    private LogEvent poll() {
+        int index = (int) (head & mask);
+        if (sequences.get(index) != head + 1) {
+            return null; // empty (or the producer hasn't finished writing)
+        }
+        LogEvent event = events[index];
+        events[index] = null;
+        sequences.set(index, head + capacity);
+        head++;
+        return event;
+    }
+
+    private void drainLoop() {
+        while (running || tail.get() != head) {
+            LogEvent event = poll();
+            if (event != null) {
+                write(event);
+                continue;
+            }
+
+            reportDropped();
+            out.flush();
+            err.flush();
+
+            writerIdle = true;
+            if (tail.get() == head && running) {
+                LockSupport.parkNanos(100_000_000);
+            }
+            writerIdle = false;
+        }
+        reportDropped();
+        out.flush();
+        err.flush();
+    }
+
+    private void write(LogEvent event) {
+        String message = event.args() == null || event.args().length == 0
+                ? event.message()
+                : MessageFormatter.basicArrayFormat(event.message(), event.args());
+
+        String line = TIME_FORMAT.format(Instant.ofEpochMilli(event.timestamp()))
+                + " [" + event.threadName() + "] "
+                + event.level() + " " + event.loggerName() + " - " + message;
+
+        PrintStream stream = event.level().toInt() >= Level.WARN.toInt() ? err : out;
+        stream.println(line);
+        if (event.throwable() != null) {
+            event.throwable().printStackTrace(stream);
+        }
+    }
+
+    private void reportDropped() {
+        long total = dropped.get();
+        if (total > droppedReported) {
+            err.println("[log-writer] " + (total - droppedReported) + " log messages dropped (buffer full)");
+            droppedReported = total;
+        }
+    }
+
+    // Writes out everything still buffered and stops the writer thread
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Metrics
+    public int getCapacity() { return capacity; }
+    public Policy getPolicy() { return policy; }
+    public long getDroppedCount() { return dropped.get(); }
+    public long getQueuedCount() { return tail.get() - head; }
+}
@@ -0,0 +1,42 @@
+import org.slf4j.Marker;
+import org.slf4j.event.Level;
+import org.slf4j.helpers.LegacyAbstractLogger;
+
+/**
+ * slf4j logger that hands events to the shared AsyncLogWriter.
+ *
+ * The level check is a single int compare, and slf4j only builds the
+ * argument array after it passes, so disabled calls allocate nothing.
+ * Use parameterized messages ("Added {} x {}") rather than string
+ * concatenation to keep it that way.
+ */
+public class AsyncLogger extends LegacyAbstractLogger {
+    private static final long serialVersionUID = 1L;
+
+    private final int threshold;
+    // A deserialized logger is swapped for the live one by name (see NamedLoggerBase.readResolve)
+    private final transient AsyncLogWriter writer;
+
+    AsyncLogger(String name, Level level, AsyncLogWriter writer) {
+        this.name = name;
+        this.threshold = level.toInt();
+        this.writer = writer;
+    }
+
+    @Override public boolean isTraceEnabled() { return threshold <= Level.TRACE.toInt(); }
+    @Override public boolean isDebugEnabled() { return threshold <= Level.DEBUG.toInt(); }
+    @Override public boolean isInfoEnabled() { return threshold <= Level.INFO.toInt(); }
+    @Override public boolean isWarnEnabled() { return threshold <= Level.WARN.toInt(); }
+    @Override public boolean isErrorEnabled() { return threshold <= Level.ERROR.toInt(); }
+
+    @Override
+    protected String getFullyQualifiedCallerName() {
+        return null;
+    }
+
+    @Override
+    protected void handleNormalizedLoggingCall(Level level, Marker marker, String messagePattern,
+                                               Object[] arguments, Throwable throwable) {
+        writer.publish(level, name, messagePattern, arguments, throwable);
+    }
+}
@@ -0,0 +1,125 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Live sorted indexes over effective price, discount and stock, for
+ * browsing the whole catalog by those fields: "under $20, cheapest
+ * first", "biggest discounts", "most in stock".
+ *
+ * Unlike CatalogIndex, which re-sorts an order once any product's key for
+ * it has changed, these are updated in place as single products change
+ * (see the ProductCatalog hooks called from Product's setters), so a sale
+ * or a price edit costs one block shift rather than a re-sort on the next
+ * query. Price ranges and cursors are found by binary search, and a
+ * page walks only as far as it needs to from either end.
+ */
+public class BrowseIndex {
+    private final SortedKeyIndex byPrice = new SortedKeyIndex(Product::getDiscountedPrice);
+    private final SortedKeyIndex byDiscount = new SortedKeyIndex(Product::getDiscountPercentage);
+    private final SortedKeyIndex byStock = new SortedKeyIndex(Product::getQuantity);
+
+    // True for the queries this index answers: no category, sorted by an indexed field
+    static boolean handles(ProductQuery query) {
+        return query.getCategory() == null && query.getSort() != ProductQuery.SortField.NAME;
+    }
+
+    public void rebuild(List<Product> products) {
+        byPrice.rebuild(products);
+        byDiscount.rebuild(products);
+        byStock.rebuild(products);
+    }
+
+    public void add(Product p) {
+        byPrice.add(p);
+        byDiscount.add(p);
+        byStock.add(p);
+    }
+
+    public void remove(Product p) {
+        byPrice.remove(p, byPrice.keyOf(p));
+        byDiscount.remove(p, byDiscount.keyOf(p));
+        byStock.remove(p, byStock.keyOf(p));
+    }
+
+    // Called after a product's price or discount changed from the given values
+    public void priceChanged(Product p, double oldPrice, double oldDiscount) {
+        byPrice.update(p, Product.discountedPrice(oldPrice, oldDiscount));
+        byDiscount.update(p, oldDiscount);
+    }
+
+    public void stockChanged(Product p, int oldQuantity) {
+        byStock.update(p, oldQuantity);
+    }
+
+    private SortedKeyIndex indexFor(ProductQuery.SortField sort) {
+        return switch (sort) {
+            case PRICE -> byPrice;
+            case DISCOUNT -> byDiscount;
+            case STOCK -> byStock;
+            case NAME -> throw new IllegalArgumentException("Not indexed: " + sort);
+        };
+    }
+
+    /** Runs a query that handles() accepts, with the same results as CatalogIndex.run(). */
+    public ProductQuery.Page run(ProductQuery query) {
+        ProductQuery.SortField sort = query.getSort();
+        SortedKeyIndex index = indexFor(sort);
+        // Resolved before locking, as it may throw
+        String[] position = query.decodeCursor();
+
+        index.readLock();
+        try {
+            // Narrow to [from, to) with binary search when sorting by price
+            SortedKeyIndex.Position from = index.start();
+            SortedKeyIndex.Position to = index.end();
+            if (sort == ProductQuery.SortField.PRICE) {
+                if (query.getMinPrice() != null) {
+                    from = index.seek(query.getMinPrice(), false);
+                }
+                if (query.getMaxPrice() != null) {
+                    to = index.seek(query.getMaxPrice(), true);
+                }
+            }
+
+            int total;
+            if (query.hasResidualFilters(sort == ProductQuery.SortField.PRICE)) {
+                total = 0;
+                SortedKeyIndex.Walker all = index.new Walker(from, to, false);
+                for (Product p = all.next(); p != null; p = all.next()) {
+                    if (query.matches(p)) total++;
+                }
+            } else {
+                total = index.count(from, to);
+            }
+
+            // Resume after the cursor position
+            if (position != null) {
+                String id = position[0];
+                double key = Double.parseDouble(position[1]);
+                if (query.isDescending()) {
+                    SortedKeyIndex.Position cut = index.seek(key, id, false);
+                    if (SortedKeyIndex.compare(cut, to) < 0) to = cut;
+                } else {
+                    SortedKeyIndex.Position cut = index.seek(key, id, true);
+                    if (SortedKeyIndex.compare(cut, from) > 0) from = cut;
+                }
+            }
+
+            List<Product> items = new ArrayList<>(query.getLimit());
+            boolean more = false;
+            SortedKeyIndex.Walker walker = index.new Walker(from, to, query.isDescending());
+            while (true) {
+                Product p = query.isDescending() ? walker.previous() : walker.next();
+                if (p == null) break;
+                if (!query.matches(p)) continue;
+                if (items.size() == query.getLimit()) { more = true; break; }
+                items.add(p);
+            }
+
+            String nextCursor = more ? query.encodeCursor(items.get(items.size() - 1)) : null;
+            return new ProductQuery.Page(items, total, nextCursor);
+        } finally {
+            index.readUnlock();
+        }
+    }
+}
@@ -1,33 +1,43 @@
 import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
 
 public class CartItem {
     private Product product;
     private int quantity;
     private LocalDateTime reservationTime;
+    // Epoch millis when the reservation runs out, so checking it needs no date arithmetic
+    private transient long expiresAt;
+    // Set while a ReservationExpiry has this item scheduled; guarded by its lock
+    transient ReservationExpiry.Timeout expiryTimeout;
     private static final int RESERVATION_MINUTES = 15;
 
     public CartItem(Product product, int quantity) {
         this.product = product;
         this.quantity = quantity;
-        this.reservationTime = LocalDateTime.now(); 
+        startReservation();
     }
 
     public boolean isReservationExpired(){
-        return LocalDateTime.now().isAfter(reservationTime.plusMinutes(RESERVATION_MINUTES));
+        return System.currentTimeMillis() > expiresAt;
 
     }
 
     public long getMinutesUntilExpiration() {
-        LocalDateTime expiryTime = reservationTime.plusMinutes(RESERVATION_MINUTES);
-        long minutes = ChronoUnit.MINUTES.between(LocalDateTime.now(), expiryTime);
-        return Math.max(0, minutes);
+        long millis = expiresAt - System.currentTimeMillis();
+        return Math.max(0, TimeUnit.MILLISECONDS.toMinutes(millis));
     }
 
     public void refreshReservation() {
+        startReservation();
+    }
+
+    private void startReservation() {
         this.reservationTime = LocalDateTime.now();
+        this.expiresAt = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(RESERVATION_MINUTES);
     }
 
+    public long getExpiresAt() { return expiresAt; }
+
 
     public Product getProduct() { return product; }
     public int getQuantity() { return quantity; }
@@ -35,7 +45,7 @@ public class CartItem {
     public void setQuantity(int quantity) {
         if (quantity < 1) throw new IllegalArgumentException("Quantity must be at least 1.");
         this.quantity = quantity;
-        this.reservationTime = LocalDateTime.now();
+        refreshReservation();
     }
 
     public double getSubtotal() {
@@ -0,0 +1,126 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The inserts, updates and deletes that turn the catalog into a newly
+ * read version of the product feed, matched by id (ignoring case).
+ *
+ * Details (name, category, description, price, discount) are compared
+ * with the live catalog. Stock is different: the shop changes it with
+ * every sale, so a product's quantity is only taken from the feed when
+ * the feed itself changed it since the previous version. Likewise only
+ * products that were in the previous version and are gone from this one
+ * are deleted, so products added through the admin page are left alone.
+ */
+public class CatalogDiff {
+
+    /** A product whose feed entry differs from the catalog. */
+    public static class Update {
+        private final Product current;
+        private final Product incoming;
+        private final boolean stockChanged;
+
+        Update(Product current, Product incoming, boolean stockChanged) {
+            this.current = current;
+            this.incoming = incoming;
+            this.stockChanged = stockChanged;
+        }
+
+        public Product getCurrent() { return current; }
+        public Product getIncoming() { return incoming; }
+        public boolean isStockChanged() { return stockChanged; }
+    }
+
+    private final List<Product> inserted = new ArrayList<>();
+    private final List<Update> updated = new ArrayList<>();
+    private final List<Product> deleted = new ArrayList<>();
+    // Quantity per normalized id in the feed just read, the baseline for the next diff
+    private final Map<String, Integer> feedStock;
+
+    private CatalogDiff(int feedSize) {
+        this.feedStock = new HashMap<>(feedSize * 2);
+    }
+
+    /**
+     * previousFeedStock is the feedStock of the last diff applied, or of the
+     * feed the catalog was started from.
+     */
+    static CatalogDiff compute(CatalogState current, List<Product> feed, Map<String, Integer> previousFeedStock) {
+        CatalogDiff diff = new CatalogDiff(feed.size());
+        for (Product incoming : feed) {
+            String key = ProductCatalog.normalizeId(incoming.getId());
+            // First entry wins on duplicate ids, as it does when loading
+            if (diff.feedStock.putIfAbsent(key, incoming.getQuantity()) != null) {
+                continue;
+            }
+
+            Product existing = current.getProductById(incoming.getId());
+            if (existing == null) {
+                diff.inserted.add(incoming);
+                continue;
+            }
+            Integer previousStock = previousFeedStock.get(key);
+            boolean stockChanged = (previousStock == null || previousStock != incoming.getQuantity())
+                    && existing.getQuantity() != incoming.getQuantity();
+            if (stockChanged || !existing.sameDetails(incoming)) {
+                diff.updated.add(new Update(existing, incoming, stockChanged));
+            }
+        }
+
+        for (String key : previousFeedStock.keySet()) {
+            if (!diff.feedStock.containsKey(key)) {
+                Product existing = current.getProductById(key);
+                if (existing != null) {
+                    diff.deleted.add(existing);
+                }
+            }
+        }
+        return diff;
+    }
+
+    static Map<String, Integer> stockOf(List<Product> feed) {
+        Map<String, Integer> stock = new HashMap<>(feed.size() * 2);
+        for (Product p : feed) {
+            stock.putIfAbsent(ProductCatalog.normalizeId(p.getId()), p.getQuantity());
+        }
+        return stock;
+    }
+
+    public boolean isEmpty() {
+        return inserted.isEmpty() && updated.isEmpty() && deleted.isEmpty();
+    }
+
+    public List<Product> getInserted() { return inserted; }
+    public List<Update> getUpdated() { return updated; }
+    public List<Product> getDeleted() { return deleted; }
+    public Map<String, Integer> getFeedStock() { return feedStock; }
+
+    // Rows to write: inserted products, and updated ones as they will be after applying
+    List<Product> rowsToUpsert() {
+        List<Product> rows = new ArrayList<>(inserted.size() + updated.size());
+        rows.addAll(inserted);
+        for (Update u : updated) {
+            Product row = new Product(u.current.getId(), u.incoming.getName(), u.incoming.getCategory(),
+                    u.incoming.getDescription(), u.incoming.getPrice(),
+                    u.stockChanged ? u.incoming.getQuantity() : u.current.getQuantity(),
+                    u.incoming.getDiscountPercentage());
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    List<String> idsToDelete() {
+        List<String> ids = new ArrayList<>(deleted.size());
+        for (Product p : deleted) {
+            ids.add(p.getId());
+        }
+        return ids;
+    }
+
+    @Override
+    public String toString() {
+        return inserted.size() + " inserted, " + updated.size() + " updated, " + deleted.size() + " deleted";
+    }
+}
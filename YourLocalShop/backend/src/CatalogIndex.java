@@ -0,0 +1,203 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntPredicate;
+
+/**
+ * Read-only lookup structures over the product list of the catalog:
+ * products grouped by category, and arrays sorted by each sort field.
+ * Sorted arrays are built the first time a sort is asked for.
+ *
+ * ProductCatalog builds a new index when products are added, removed or
+ * change category. Field edits keep the index and only drop the arrays
+ * sorted by the field that changed (see invalidate), so a sale doesn't
+ * cost a re-sort of the name order. Each array keeps the sort keys it was
+ * sorted by, since products are edited in place while it is being built
+ * and searched.
+ */
+public class CatalogIndex {
+    private final List<Product> all;
+    private final Map<String, List<Product>> byCategory = new HashMap<>();
+
+    // Key: sort field, or category + sort field
+    private final Map<String, Sorted> sortedArrays = new ConcurrentHashMap<>();
+    // Bumped by invalidate(), per sort field; an array built before the bump is rebuilt
+    private final AtomicLongArray generations = new AtomicLongArray(ProductQuery.SortField.values().length);
+
+    /** Products in sort order, with the keys they were sorted by. */
+    static final class Sorted {
+        final long generation;
+        final Product[] products;
+        // Sort key per position: names for NAME, numbers for the other fields
+        final String[] names;
+        final double[] keys;
+
+        Sorted(long generation, Product[] products, String[] names, double[] keys) {
+            this.generation = generation;
+            this.products = products;
+            this.names = names;
+            this.keys = keys;
+        }
+
+        // Compares position i with a (key, id) position taken from a cursor
+        int compareToPosition(int i, String key, String id) {
+            int c = names != null
+                    ? String.CASE_INSENSITIVE_ORDER.compare(names[i], key)
+                    : Double.compare(keys[i], Double.parseDouble(key));
+            return c != 0 ? c : products[i].getId().compareTo(id);
+        }
+    }
+
+    // A product and its key, read once so the sort sees values that don't change under it
+    private static final class Keyed {
+        final Product product;
+        final String id;
+        final String name;
+        final double key;
+
+        Keyed(Product product, ProductQuery.SortField sort) {
+            this.product = product;
+            this.id = product.getId();
+            this.name = sort == ProductQuery.SortField.NAME ? product.getName() : null;
+            this.key = sort == ProductQuery.SortField.NAME ? 0 : sort.numericKeyOf(product);
+        }
+    }
+
+    private static final Comparator<Keyed> BY_NAME = Comparator
+            .comparing((Keyed k) -> k.name, String.CASE_INSENSITIVE_ORDER)
+            .thenComparing(k -> k.id);
+    private static final Comparator<Keyed> BY_KEY = Comparator
+            .comparingDouble((Keyed k) -> k.key)
+            .thenComparing(k -> k.id);
+
+    public CatalogIndex(List<Product> products) {
+        this.all = new ArrayList<>(products);
+        for (Product p : all) {
+            byCategory.computeIfAbsent(normalize(p.getCategory()), k -> new ArrayList<>()).add(p);
+        }
+    }
+
+    static String normalize(String category) {
+        return category == null ? "" : category.trim().toLowerCase();
+    }
+
+    // Called after a product's sort key for the field changed; its arrays are rebuilt on next use
+    void invalidate(ProductQuery.SortField sort) {
+        generations.incrementAndGet(sort.ordinal());
+    }
+
+    // Products in a category (or all products), sorted ascending by the field
+    Sorted sorted(String category, ProductQuery.SortField sort) {
+        String key = category == null ? sort.name() : normalize(category) + "|" + sort.name();
+        long generation = generations.get(sort.ordinal());
+        Sorted current = sortedArrays.get(key);
+        if (current != null && current.generation == generation) {
+            return current;
+        }
+        // Keys are read after the generation, so a change made meanwhile bumps it past this array
+        List<Product> source = category == null ? all : byCategory.getOrDefault(normalize(category), List.of());
+        Keyed[] keyed = new Keyed[source.size()];
+        for (int i = 0; i < keyed.length; i++) {
+            keyed[i] = new Keyed(source.get(i), sort);
+        }
+        Arrays.sort(keyed, sort == ProductQuery.SortField.NAME ? BY_NAME : BY_KEY);
+
+        Product[] products = new Product[keyed.length];
+        String[] names = sort == ProductQuery.SortField.NAME ? new String[keyed.length] : null;
+        double[] keys = names == null ? new double[keyed.length] : null;
+        for (int i = 0; i < keyed.length; i++) {
+            products[i] = keyed[i].product;
+            if (names != null) {
+                names[i] = keyed[i].name;
+            } else {
+                keys[i] = keyed[i].key;
+            }
+        }
+        Sorted built = new Sorted(generation, products, names, keys);
+        // Concurrent builders may both store; either result is valid for this generation
+        sortedArrays.put(key, built);
+        return built;
+    }
+
+    public ProductQuery.Page run(ProductQuery query) {
+        ProductQuery.SortField sort = query.getSort();
+        Sorted sorted = sorted(query.getCategory(), sort);
+        Product[] array = sorted.products;
+
+        // Narrow to [lo, hi) with binary search when sorting by price
+        int lo = 0;
+        int hi = array.length;
+        if (sort == ProductQuery.SortField.PRICE) {
+            double[] keys = sorted.keys;
+            if (query.getMinPrice() != null) {
+                double min = query.getMinPrice();
+                lo = firstIndex(0, hi, i -> keys[i] >= min);
+            }
+            if (query.getMaxPrice() != null) {
+                double max = query.getMaxPrice();
+                hi = firstIndex(lo, hi, i -> keys[i] > max);
+            }
+        }
+
+        int total = query.hasResidualFilters(sort == ProductQuery.SortField.PRICE)
+                ? countMatches(array, lo, hi, query)
+                : hi - lo;
+
+        // Resume after the cursor position
+        String[] position = query.decodeCursor();
+        if (position != null) {
+            String id = position[0];
+            String key = position[1];
+            if (query.isDescending()) {
+                hi = firstIndex(lo, hi, i -> sorted.compareToPosition(i, key, id) >= 0);
+            } else {
+                lo = firstIndex(lo, hi, i -> sorted.compareToPosition(i, key, id) > 0);
+            }
+        }
+
+        List<Product> items = new ArrayList<>(Math.min(query.getLimit(), Math.max(0, hi - lo)));
+        boolean more = false;
+        if (query.isDescending()) {
+            for (int i = hi - 1; i >= lo; i--) {
+                if (!query.matches(array[i])) continue;
+                if (items.size() == query.getLimit()) { more = true; break; }
+                items.add(array[i]);
+            }
+        } else {
+            for (int i = lo; i < hi; i++) {
+                if (!query.matches(array[i])) continue;
+                if (items.size() == query.getLimit()) { more = true; break; }
+                items.add(array[i]);
+            }
+        }
+
+        String nextCursor = more ? query.encodeCursor(items.get(items.size() - 1)) : null;
+        return new ProductQuery.Page(items, total, nextCursor);
+    }
+
+    private static int countMatches(Product[] array, int lo, int hi, ProductQuery query) {
+        int count = 0;
+        for (int i = lo; i < hi; i++) {
+            if (query.matches(array[i])) count++;
+        }
+        return count;
+    }
+
+    // First index in [lo, hi) where the predicate holds; it must be false then true along the array
+    private static int firstIndex(int lo, int hi, IntPredicate predicate) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (predicate.test(mid)) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+}
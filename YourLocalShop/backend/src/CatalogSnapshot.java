@@ -0,0 +1,71 @@
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pre-serialized JSON of the product list for one catalog version.
+ * Built once per version and shared by every GET /api/products, so
+ * the catalog is not re-serialized on each request.
+ */
+public class CatalogSnapshot {
+    private final long version;
+    private final byte[] json;
+    private final String etag;
+
+    // Compressed copies of json, made on first request for each encoding
+    private final Map<String, byte[]> encodedBodies = new ConcurrentHashMap<>();
+
+    public CatalogSnapshot(long version, byte[] json) {
+        this.version = version;
+        this.json = json;
+        this.etag = computeEtag(json);
+    }
+
+    // Strong ETag from the content itself, so it stays valid across restarts
+    private static String computeEtag(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            return "\"" + HexFormat.of().formatHex(digest, 0, 16) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    // Returns the body for a Content-Encoding (null for identity), compressing it at most once
+    public byte[] getBody(String encoding, ResponseCompressor compressor) {
+        if (encoding == null) {
+            return json;
+        }
+        return encodedBodies.computeIfAbsent(encoding, e -> compressor.compress(json, e));
+    }
+
+    // Each encoded form is a different representation, so it gets its own strong ETag
+    public String getEtag(String encoding) {
+        if (encoding == null) {
+            return etag;
+        }
+        return etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+    }
+
+    // Checks an If-None-Match header value against any representation of this snapshot
+    public boolean matches(String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String prefix = etag.substring(0, etag.length() - 1);
+        for (String tag : ifNoneMatch.split(",")) {
+            String t = tag.trim();
+            if (t.equals("*") || t.equals(etag) || (t.startsWith(prefix + "-") && t.endsWith("\""))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Getters
+    public long getVersion() { return version; }
+    public byte[] getJson() { return json; }
+    public String getEtag() { return etag; }
+}
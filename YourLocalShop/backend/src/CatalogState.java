@@ -0,0 +1,114 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One published version of the product catalog: the product list, the
+ * id lookup and the category index, all immutable.
+ *
+ * ProductCatalog keeps the current state in an AtomicReference. Readers
+ * take one state and use it for the whole request, so they never lock
+ * and always see a list and indexes that agree with each other. Writers
+ * build a new state and swap it in with a higher version.
+ *
+ * Product fields (stock, price, ...) are still edited in place; such an
+ * edit publishes a new state that shares everything but the version, so
+ * caches keyed on the version notice it. The sorted index is shared too:
+ * the edit only drops the sort orders it affects (sortKeyChanged).
+ */
+public class CatalogState {
+    static final CatalogState EMPTY = new CatalogState(0, List.of(), Map.of(), CategoryIndex.EMPTY);
+
+    private final long version;
+    private final List<Product> products;
+    private final Map<String, Product> byId;
+    private final CategoryIndex categories;
+    // Sorted arrays for paged queries, built on first use
+    private volatile CatalogIndex index;
+
+    private CatalogState(long version, List<Product> products, Map<String, Product> byId, CategoryIndex categories) {
+        this(version, products, byId, categories, null);
+    }
+
+    private CatalogState(long version, List<Product> products, Map<String, Product> byId, CategoryIndex categories,
+                         CatalogIndex index) {
+        this.version = version;
+        this.products = products;
+        this.byId = byId;
+        this.categories = categories;
+        this.index = index;
+    }
+
+    static CatalogState of(long version, List<Product> loaded) {
+        Map<String, Product> byId = new HashMap<>(loaded.size() * 2);
+        for (Product p : loaded) {
+            // First product wins on duplicate ids, as the old linear scan did
+            byId.putIfAbsent(ProductCatalog.normalizeId(p.getId()), p);
+        }
+        return new CatalogState(version, Collections.unmodifiableList(new ArrayList<>(loaded)),
+                Collections.unmodifiableMap(byId), CategoryIndex.of(loaded));
+    }
+
+    // Same products, new version (a product's fields were edited); keeps the index if built
+    CatalogState withVersion(long newVersion) {
+        return new CatalogState(newVersion, products, byId, categories, index);
+    }
+
+    CatalogState withAdded(Product p) {
+        List<Product> list = new ArrayList<>(products.size() + 1);
+        list.addAll(products);
+        list.add(p);
+        Map<String, Product> ids = new HashMap<>(byId);
+        ids.put(ProductCatalog.normalizeId(p.getId()), p);
+        return new CatalogState(version + 1, Collections.unmodifiableList(list),
+                Collections.unmodifiableMap(ids), categories.withAdded(p));
+    }
+
+    CatalogState withRemoved(Product p) {
+        List<Product> list = new ArrayList<>(products);
+        list.remove(p);
+        Map<String, Product> ids = new HashMap<>(byId);
+        String key = ProductCatalog.normalizeId(p.getId());
+        ids.remove(key, p);
+        // A duplicate id further down the list becomes visible again
+        for (Product other : list) {
+            if (ProductCatalog.normalizeId(other.getId()).equals(key)) {
+                ids.putIfAbsent(key, other);
+                break;
+            }
+        }
+        return new CatalogState(version + 1, Collections.unmodifiableList(list),
+                Collections.unmodifiableMap(ids), categories.withRemoved(p, p.getCategory()));
+    }
+
+    CatalogState withCategoryMoved(Product p, String oldCategory) {
+        return new CatalogState(version + 1, products, byId, categories.withMoved(p, oldCategory));
+    }
+
+    public long getVersion() { return version; }
+    public List<Product> getProducts() { return products; }
+    public CategoryIndex getCategories() { return categories; }
+
+    public Product getProductById(String id) {
+        return id == null ? null : byId.get(ProductCatalog.normalizeId(id));
+    }
+
+    public CatalogIndex getIndex() {
+        CatalogIndex current = index;
+        if (current == null) {
+            current = new CatalogIndex(products);
+            index = current;
+        }
+        return current;
+    }
+
+    // Drops the index's sort orders by the field, if the index has been built
+    void sortKeyChanged(ProductQuery.SortField sort) {
+        CatalogIndex current = index;
+        if (current != null) {
+            current.invalidate(sort);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One shared String per distinct category name.
+ *
+ * A catalog has a handful of categories but every product used to carry
+ * its own copy of the name, as parsed from JSON or read from a row.
+ * Product stores the dictionary's instance instead, so a million products
+ * in twenty categories hold twenty strings, not a million.
+ */
+public final class CategoryDictionary {
+    private static final ConcurrentHashMap<String, String> names = new ConcurrentHashMap<>();
+
+    private CategoryDictionary() {
+    }
+
+    public static String intern(String category) {
+        if (category == null) {
+            return null;
+        }
+        String shared = names.putIfAbsent(category, category);
+        return shared != null ? shared : category;
+    }
+
+    public static int size() {
+        return names.size();
+    }
+}
@@ -0,0 +1,119 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Products grouped by category, part of a CatalogState.
+ *
+ * Each category maps to an immutable list that is handed out as is, so
+ * lookups don't scan or allocate. Instances never change: adding,
+ * removing or moving a product returns a new index that shares every
+ * list except the one category affected. Stock and price changes don't
+ * touch it. Category names are matched ignoring case and surrounding
+ * spaces.
+ */
+public class CategoryIndex {
+
+    /** A category and how many products are in it. */
+    public static class Facet {
+        private final String name;
+        private final int count;
+
+        Facet(String name, int count) {
+            this.name = name;
+            this.count = count;
+        }
+
+        public String getName() { return name; }
+        public int getCount() { return count; }
+    }
+
+    static final CategoryIndex EMPTY = new CategoryIndex(Map.of());
+
+    private final Map<String, List<Product>> byCategory;
+    // Built on first read; a race only means building it twice
+    private volatile List<Facet> facets;
+
+    private CategoryIndex(Map<String, List<Product>> byCategory) {
+        this.byCategory = byCategory;
+    }
+
+    static CategoryIndex of(List<Product> products) {
+        Map<String, List<Product>> grouped = new HashMap<>();
+        for (Product p : products) {
+            grouped.computeIfAbsent(CatalogIndex.normalize(p.getCategory()), k -> new ArrayList<>()).add(p);
+        }
+        grouped.replaceAll((k, list) -> List.copyOf(list));
+        return new CategoryIndex(grouped);
+    }
+
+    public List<Product> get(String category) {
+        if (category == null) {
+            return List.of();
+        }
+        return byCategory.getOrDefault(CatalogIndex.normalize(category), List.of());
+    }
+
+    // Categories sorted by name, with product counts
+    public List<Facet> getFacets() {
+        List<Facet> current = facets;
+        if (current != null) {
+            return current;
+        }
+        List<Facet> built = new ArrayList<>(byCategory.size());
+        for (List<Product> products : byCategory.values()) {
+            // Shown with the spelling of the first product in the category
+            String name = products.get(0).getCategory();
+            built.add(new Facet(name == null ? "" : name, products.size()));
+        }
+        built.sort(Comparator.comparing(Facet::getName, String.CASE_INSENSITIVE_ORDER));
+        current = List.copyOf(built);
+        facets = current;
+        return current;
+    }
+
+    public int getCategoryCount() {
+        return byCategory.size();
+    }
+
+    CategoryIndex withAdded(Product p) {
+        String key = CatalogIndex.normalize(p.getCategory());
+        List<Product> current = byCategory.getOrDefault(key, List.of());
+        List<Product> updated = new ArrayList<>(current.size() + 1);
+        updated.addAll(current);
+        updated.add(p);
+
+        Map<String, List<Product>> copy = new HashMap<>(byCategory);
+        copy.put(key, List.copyOf(updated));
+        return new CategoryIndex(copy);
+    }
+
+    CategoryIndex withRemoved(Product p, String category) {
+        String key = CatalogIndex.normalize(category);
+        List<Product> current = byCategory.get(key);
+        if (current == null || !current.contains(p)) {
+            return this;
+        }
+        List<Product> updated = new ArrayList<>(current);
+        updated.remove(p);
+
+        Map<String, List<Product>> copy = new HashMap<>(byCategory);
+        if (updated.isEmpty()) {
+            copy.remove(key);
+        } else {
+            copy.put(key, List.copyOf(updated));
+        }
+        return new CategoryIndex(copy);
+    }
+
+    // For a product whose category changed from oldCategory to its current one
+    CategoryIndex withMoved(Product p, String oldCategory) {
+        if (CatalogIndex.normalize(oldCategory).equals(CatalogIndex.normalize(p.getCategory()))) {
+            // Same category, but the spelling shown in facets may have changed
+            return new CategoryIndex(byCategory);
+        }
+        return withRemoved(p, oldCategory).withAdded(p);
+    }
+}
@@ -38,6 +38,20 @@ public class DatabaseConnection {
         return connection;
     }
 
+    // A separate connection to the same database, for bulk writes that should not hold a
+    // transaction open on the shared one. The caller closes it.
+    public Connection openConnection() throws SQLException {
+        if (connection == null) {
+            throw new IllegalStateException("Database connection is not initialized");
+        }
+        Connection extra = DriverManager.getConnection(DB_URL);
+        try (Statement stmt = extra.createStatement()) {
+            // Wait for the shared connection's writes instead of failing with SQLITE_BUSY
+            stmt.execute("PRAGMA busy_timeout = 5000");
+        }
+        return extra;
+    }
+
     public void initializeTables(){
         try (Statement stmt = connection.createStatement()) {
 
@@ -0,0 +1,125 @@
+import com.google.gson.Gson;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the heap used per product by the old and the compact layout.
+ *
+ * Old: products as Gson parses them, each with its own category String,
+ * and the inventory's two HashMap<String, Integer>. Compact: categories
+ * shared through CategoryDictionary and stock in a StockTable.
+ *
+ * Run with: java HeapFootprintBenchmark [products]   (default 200000)
+ * Heap numbers come from Runtime after repeated GCs, so run it with a
+ * fixed heap (e.g. -Xms2g -Xmx2g) for steadier results.
+ */
+public class HeapFootprintBenchmark {
+    private static final String[] CATEGORIES = {
+            "Fruit", "Vegetables", "Dairy", "Bakery", "Meat", "Fish", "Drinks", "Snacks",
+            "Frozen", "Household", "Baby", "Pets", "Health", "Beauty", "Pantry", "Deli"
+    };
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        String[] json = feed(n);
+
+        // Each layout is built in its own call so nothing of it is left reachable after
+        long oldTotal = measureOld(json);
+        long compactTotal = measureCompact(json);
+
+        System.out.printf("Saved %.1f bytes per product (%.0f%%)%n",
+                (oldTotal - compactTotal) / (double) n, 100.0 * (oldTotal - compactTotal) / oldTotal);
+    }
+
+    private static long measureOld(String[] json) {
+        long base = usedHeap();
+        Product[] products = parse(json, false);
+        long productsOnly = usedHeap() - base;
+        Map<String, Integer> stockLevels = new HashMap<>();
+        Map<String, Integer> reservedStock = new HashMap<>();
+        for (Product p : products) {
+            stockLevels.put(p.getId(), p.getQuantity());
+            reservedStock.put(p.getId(), 0);
+        }
+        long total = usedHeap() - base;
+        report("old", json.length, productsOnly, total);
+        keep(products, stockLevels, reservedStock);
+        return total;
+    }
+
+    private static long measureCompact(String[] json) {
+        long base = usedHeap();
+        Product[] products = parse(json, true);
+        long productsOnly = usedHeap() - base;
+        StockTable stock = new StockTable(json.length);
+        for (Product p : products) {
+            stock.initTotal(stock.indexFor(p.getId()), p.getQuantity());
+        }
+        long total = usedHeap() - base;
+        report("compact", json.length, productsOnly, total);
+        keep(products, stock, null);
+        return total;
+    }
+
+    // One JSON object per product, as they appear in products.json
+    private static String[] feed(int n) {
+        Random random = new Random(42);
+        String[] json = new String[n];
+        for (int i = 0; i < n; i++) {
+            String category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+            json[i] = String.format("{\"id\":\"P%07d\",\"name\":\"Product %d\",\"category\":\"%s\","
+                            + "\"description\":\"A %s item\",\"price\":%.2f,\"quantity\":%d,\"discountPercentage\":%d}",
+                    i, i, category, category.toLowerCase(), 0.5 + random.nextInt(5000) / 100.0,
+                    random.nextInt(500), random.nextInt(4) * 10);
+        }
+        return json;
+    }
+
+    private static Product[] parse(String[] json, boolean compact) {
+        Gson gson = new Gson();
+        Product[] products = new Product[json.length];
+        for (int i = 0; i < json.length; i++) {
+            products[i] = gson.fromJson(json[i], Product.class);
+            if (compact) {
+                products[i].compact();
+            }
+        }
+        return products;
+    }
+
+    private static void report(String layout, int n, long products, long total) {
+        System.out.printf("%-8s %,d products: %,d bytes (%.1f per product; %.1f products, %.1f stock)%n",
+                layout, n, total, total / (double) n, products / (double) n, (total - products) / (double) n);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // Settle until a GC frees nothing more
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            long now = runtime.totalMemory() - runtime.freeMemory();
+            if (now >= used) {
+                break;
+            }
+            used = now;
+        }
+        return used;
+    }
+
+    // Keeps the measured structures reachable up to this point
+    private static volatile Object sink;
+
+    private static void keep(Object a, Object b, Object c) {
+        sink = new Object[] {a, b, c};
+        sink = null;
+    }
+}
@@ -0,0 +1,517 @@
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Append-only journal of inventory changes, so stock and reservations can
+ * be rebuilt after a crash without a database write per change.
+ *
+ * Every change StockTable makes is appended as a small checksummed record
+ * to a memory-mapped segment file. A record holds either a product's first
+ * total or the deltas to its total and reserved counts; deltas add up in
+ * any order, so concurrent changes need no ordering beyond their own CAS.
+ * The mapping is forced to disk by one background thread every few
+ * milliseconds, covering every record appended since: a group fsync.
+ * Orders wait for theirs (awaitDurable) before going on to payment.
+ *
+ * When a segment fills up the journal moves to the next one, and the
+ * previous snapshot plus the full segment are folded into a new snapshot
+ * in the background, after which both are deleted. At startup the newest
+ * valid snapshot is loaded and the segments after it replayed; a record
+ * cut short by the crash fails its checksum and ends the replay.
+ *
+ * Files, in shop.journal.dir (default "journal"):
+ *   journal-GEN.log    records, GEN in hex
+ *   snapshot-GEN.snap  the state before journal GEN
+ *
+ * Segment size is set with shop.journal.segmentMb (default 16), the sync
+ * interval with shop.journal.syncMillis (default 20).
+ */
+public class InventoryJournal implements StockTable.Listener {
+    private static final Logger log = LoggerFactory.getLogger(InventoryJournal.class);
+
+    private static final int JOURNAL_MAGIC = 0x534A4E4C;   // "SJNL"
+    private static final int SNAPSHOT_MAGIC = 0x53534E50;  // "SSNP"
+    private static final int HEADER_BYTES = 12;
+
+    private static final byte BASE = 1;
+    private static final byte DELTA = 2;
+
+    /** A product's counts as rebuilt from snapshot and journal. */
+    static final class Entry {
+        // False until the product's first total is seen; deltas may come first
+        boolean based;
+        int total;
+        int reserved;
+    }
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final long syncMillis;
+    private final Map<String, Entry> recovered;
+
+    // Current segment; guarded by this
+    private long generation;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long appended;
+    // Written under this; read without it by waiters
+    private volatile boolean closed = true;
+
+    // Guarded by syncMonitor
+    private final Object syncMonitor = new Object();
+    private long durable;
+    private boolean syncRequested;
+
+    private Thread syncer;
+    private final ExecutorService snapshotter = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "inventory-snapshot");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private InventoryJournal(Path dir, long segmentBytes, long syncMillis) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.syncMillis = syncMillis;
+        Files.createDirectories(dir);
+        this.recovered = recover();
+    }
+
+    public static InventoryJournal open(Path dir, long segmentBytes, long syncMillis) throws IOException {
+        return new InventoryJournal(dir, segmentBytes, syncMillis);
+    }
+
+    public static InventoryJournal fromSystemProperties() throws IOException {
+        Path dir = Path.of(System.getProperty("shop.journal.dir", "journal"));
+        long segmentMb = Math.max(1, Long.getLong("shop.journal.segmentMb", 16));
+        long syncMillis = Math.max(1, Long.getLong("shop.journal.syncMillis", 20));
+        return open(dir, segmentMb << 20, syncMillis);
+    }
+
+    // Counts per product id as of the crash or shutdown, read when the journal was opened
+    public Map<String, int[]> getRecovered() {
+        Map<String, int[]> result = new HashMap<>(recovered.size() * 2);
+        for (Map.Entry<String, Entry> e : recovered.entrySet()) {
+            result.put(e.getKey(), new int[] {e.getValue().total, e.getValue().reserved});
+        }
+        return result;
+    }
+
+    /**
+     * Takes the table's current counts as the new starting point (written as
+     * a snapshot, replacing all older files) and journals its changes from
+     * now on. Called once, before the table is in use.
+     */
+    public synchronized void start(StockTable table) throws IOException {
+        Map<String, Entry> state = new HashMap<>();
+        table.forEach((id, total, reserved) -> {
+            Entry e = new Entry();
+            e.based = true;
+            e.total = total;
+            e.reserved = reserved;
+            state.put(id, e);
+        });
+
+        generation = latestGeneration() + 1;
+        writeSnapshot(generation, state);
+        deleteBefore(generation);
+        openSegment();
+        closed = false;
+        recovered.clear();
+
+        syncer = new Thread(this::syncLoop, "inventory-journal-sync");
+        syncer.setDaemon(true);
+        syncer.start();
+        table.setListener(this);
+        log.info("Inventory journal started in {} with {} products", dir, state.size());
+    }
+
+    @Override
+    public void initialized(String id, int total) {
+        append(BASE, id, total, 0);
+    }
+
+    @Override
+    public void changed(String id, int totalDelta, int reservedDelta) {
+        append(DELTA, id, totalDelta, reservedDelta);
+    }
+
+    // Record: length, then type, a, b, id length, id bytes, CRC32 of all of these
+    private void append(byte type, String id, int a, int b) {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        int payload = 1 + 4 + 4 + 2 + idBytes.length;
+        ByteBuffer record = ByteBuffer.allocate(4 + payload + 4);
+        record.putInt(payload + 4).put(type).putInt(a).putInt(b).putShort((short) idBytes.length).put(idBytes);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, payload);
+        record.putInt((int) crc.getValue());
+        record.flip();
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            // Keep four zero bytes after the last record so replay sees where it ends
+            if (segment.remaining() < record.remaining() + 4) {
+                rotate();
+            }
+            segment.put(record);
+            appended++;
+        }
+    }
+
+    // Called with this locked: seals the full segment and starts the next one
+    private void rotate() {
+        segment.force();
+        synchronized (syncMonitor) {
+            durable = appended;
+            syncMonitor.notifyAll();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Error closing journal segment: {}", e.getMessage());
+        }
+        long sealed = generation;
+        generation++;
+        try {
+            openSegment();
+        } catch (IOException e) {
+            // Without a segment there is nowhere to append; stop journaling rather than lose records silently
+            closed = true;
+            log.error("Inventory journal stopped, could not start segment {}: {}", generation, e.getMessage());
+            return;
+        }
+        long next = generation;
+        snapshotter.execute(() -> compact(sealed, next));
+    }
+
+    private void openSegment() throws IOException {
+        channel = FileChannel.open(journalFile(generation), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        segment.putInt(JOURNAL_MAGIC).putLong(generation);
+    }
+
+    // Folds the latest snapshot and the segments up to sealed into a snapshot for next
+    private void compact(long sealed, long next) {
+        try {
+            Map<String, Entry> state = load(next);
+            writeSnapshot(next, state);
+            deleteBefore(next);
+            log.info("Inventory snapshot {} written ({} products)", Long.toHexString(next), state.size());
+        } catch (IOException e) {
+            log.error("Inventory snapshot after segment {} failed, keeping the segments: {}",
+                    Long.toHexString(sealed), e.getMessage());
+        }
+    }
+
+    /** Blocks until every change appended so far is on disk. */
+    public void awaitDurable() {
+        long mine;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            mine = appended;
+        }
+        // Never takes this while holding syncMonitor: append() takes them the other way round
+        synchronized (syncMonitor) {
+            syncRequested = true;
+            syncMonitor.notifyAll();
+            while (durable < mine) {
+                try {
+                    syncMonitor.wait(syncMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (closed) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void syncLoop() {
+        while (true) {
+            synchronized (syncMonitor) {
+                if (!syncRequested) {
+                    try {
+                        syncMonitor.wait(syncMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                syncRequested = false;
+            }
+
+            MappedByteBuffer current;
+            long target;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                current = segment;
+                target = appended;
+            }
+            boolean behind;
+            synchronized (syncMonitor) {
+                behind = target > durable;
+            }
+            if (behind) {
+                // Writes after target may be forced too; only those before it are counted
+                current.force();
+                synchronized (syncMonitor) {
+                    durable = Math.max(durable, target);
+                    syncMonitor.notifyAll();
+                }
+            }
+        }
+    }
+
+    // Forces what is left to disk and stops journaling
+    public void close() {
+        long last;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            segment.force();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Error closing journal segment: {}", e.getMessage());
+            }
+            last = appended;
+        }
+        synchronized (syncMonitor) {
+            durable = last;
+            syncMonitor.notifyAll();
+        }
+        if (syncer != null) {
+            syncer.interrupt();
+        }
+        snapshotter.shutdown();
+        try {
+            snapshotter.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Recovery
+
+    private Map<String, Entry> recover() throws IOException {
+        long start = System.nanoTime();
+        Map<String, Entry> state = load(Long.MAX_VALUE);
+        if (!state.isEmpty()) {
+            log.info("Recovered inventory for {} products from {} in {} ms", state.size(), dir,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+        return state;
+    }
+
+    // State before journal generation upTo: the newest valid snapshot at or below it, then the segments after
+    private Map<String, Entry> load(long upTo) throws IOException {
+        Map<String, Entry> state = new HashMap<>();
+        long from = 0;
+        List<Long> snapshots = generations("snapshot-", ".snap");
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            long g = snapshots.get(i);
+            if (g <= upTo && readSnapshot(g, state)) {
+                from = g;
+                break;
+            }
+            state.clear();
+        }
+        for (long g : generations("journal-", ".log")) {
+            if (g >= from && g < upTo) {
+                replay(g, state);
+            }
+        }
+        return state;
+    }
+
+    private boolean readSnapshot(long g, Map<String, Entry> state) {
+        Path file = snapshotFile(g);
+        try (InputStream raw = new BufferedInputStream(Files.newInputStream(file))) {
+            CheckedInputStream checked = new CheckedInputStream(raw, new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readLong() != g) {
+                throw new IOException("bad header");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String id = in.readUTF();
+                Entry e = new Entry();
+                e.based = in.readBoolean();
+                e.total = in.readInt();
+                e.reserved = in.readInt();
+                state.put(id, e);
+            }
+            long expected = checked.getChecksum().getValue();
+            if (new DataInputStream(raw).readLong() != expected) {
+                throw new IOException("checksum mismatch");
+            }
+            return true;
+        } catch (IOException e) {
+            log.warn("Skipping inventory snapshot {}: {}", file.getFileName(), e.getMessage());
+            return false;
+        }
+    }
+
+    private void replay(long g, Map<String, Entry> state) throws IOException {
+        Path file = journalFile(g);
+        int records = 0;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.remaining() < HEADER_BYTES || buf.getInt() != JOURNAL_MAGIC || buf.getLong() != g) {
+                log.warn("Skipping inventory journal {}: bad header", file.getFileName());
+                return;
+            }
+            CRC32 crc = new CRC32();
+            byte[] payload = new byte[256];
+            while (buf.remaining() >= 4) {
+                int length = buf.getInt();
+                // Zero marks the end; anything implausible is a torn write
+                if (length < 15 || length > buf.remaining()) {
+                    break;
+                }
+                int size = length - 4;
+                if (payload.length < size) {
+                    payload = new byte[size];
+                }
+                buf.get(payload, 0, size);
+                int stored = buf.getInt();
+                crc.reset();
+                crc.update(payload, 0, size);
+                if ((int) crc.getValue() != stored) {
+                    log.warn("Inventory journal {} ends in a damaged record after {} records", file.getFileName(), records);
+                    break;
+                }
+                apply(ByteBuffer.wrap(payload, 0, size), state);
+                records++;
+            }
+        }
+        log.debug("Replayed {} inventory records from {}", records, file.getFileName());
+    }
+
+    private static void apply(ByteBuffer record, Map<String, Entry> state) {
+        byte type = record.get();
+        int a = record.getInt();
+        int b = record.getInt();
+        int idLength = record.getShort() & 0xffff;
+        String id = new String(record.array(), record.position(), idLength, StandardCharsets.UTF_8);
+        Entry e = state.computeIfAbsent(id, k -> new Entry());
+        if (type == BASE) {
+            // Only the first total counts; deltas seen before it were made on top of it
+            if (!e.based) {
+                e.based = true;
+                e.total += a;
+            }
+        } else {
+            e.total += a;
+            e.reserved += b;
+        }
+    }
+
+    // Files
+
+    private void writeSnapshot(long g, Map<String, Entry> state) throws IOException {
+        Path file = snapshotFile(g);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile())) {
+            BufferedOutputStream raw = new BufferedOutputStream(fos);
+            CheckedOutputStream checked = new CheckedOutputStream(raw, new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(g);
+            out.writeInt(state.size());
+            for (Map.Entry<String, Entry> e : state.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeBoolean(e.getValue().based);
+                out.writeInt(e.getValue().total);
+                out.writeInt(e.getValue().reserved);
+            }
+            out.flush();
+            DataOutputStream trailer = new DataOutputStream(raw);
+            trailer.writeLong(checked.getChecksum().getValue());
+            trailer.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Deletes snapshots and segments older than generation g, which a snapshot now covers
+    private void deleteBefore(long g) throws IOException {
+        for (long old : generations("journal-", ".log")) {
+            if (old < g) Files.deleteIfExists(journalFile(old));
+        }
+        for (long old : generations("snapshot-", ".snap")) {
+            if (old < g) Files.deleteIfExists(snapshotFile(old));
+        }
+    }
+
+    private long latestGeneration() throws IOException {
+        long latest = 0;
+        for (long g : generations("journal-", ".log")) latest = Math.max(latest, g);
+        for (long g : generations("snapshot-", ".snap")) latest = Math.max(latest, g);
+        return latest;
+    }
+
+    // Generations of the files with this prefix and suffix, oldest first
+    private List<Long> generations(String prefix, String suffix) throws IOException {
+        List<Long> result = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(f -> {
+                String name = f.getFileName().toString();
+                if (name.startsWith(prefix) && name.endsWith(suffix)) {
+                    try {
+                        result.add(Long.parseUnsignedLong(name.substring(prefix.length(), name.length() - suffix.length()), 16));
+                    } catch (NumberFormatException ignored) {
+                        // Not one of ours
+                    }
+                }
+            });
+        }
+        result.sort(null);
+        return result;
+    }
+
+    private Path journalFile(long g) {
+        return dir.resolve(String.format("journal-%016x.log", g));
+    }
+
+    private Path snapshotFile(long g) {
+        return dir.resolve(String.format("snapshot-%016x.snap", g));
+    }
+}
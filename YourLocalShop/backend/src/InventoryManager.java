@@ -1,87 +1,319 @@
-import java.util.HashMap;
+import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import exceptions.InsufficientStockException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class InventoryManager {
-    private Map<String, Integer> stockLevels = new HashMap<>();
-    private Map<String, Integer> reservedStock = new HashMap<>();
+    private static final Logger log = LoggerFactory.getLogger(InventoryManager.class);
+
+    // Total and reserved units per product id. Each product's pair is changed with one CAS,
+    // so reserving and releasing take no lock and concurrent carts can't oversell.
+    private final StockTable stock;
+
+    // Locks taken, by stock cell index, by whatever lowers a total (orders, stock resets) and by
+    // operations on several products. Always acquired in ascending order, so two of them can't
+    // each hold a stripe the other waits for. 64 so a set of stripes fits in one long.
+    private static final int LOCK_STRIPES = 64;
+    private final ReentrantLock[] stripes = new ReentrantLock[LOCK_STRIPES];
     private ProductCatalog catalog;
+    // Records every stock change so it survives a crash; null when running without one
+    private final InventoryJournal journal;
 
     public InventoryManager(ProductCatalog catalog) {
+        this(catalog, null);
+    }
+
+    public InventoryManager(ProductCatalog catalog, InventoryJournal journal) {
         this.catalog = catalog;
+        this.journal = journal;
+        this.stock = new StockTable(catalog.isBounded() ? 0 : catalog.getState().getProducts().size());
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
         initializeStock();
+        startJournal();
     }
 
-    // Load initial stock from ProductCatalog
+    // Load initial stock from ProductCatalog. A bounded catalog isn't copied up front;
+    // a product's cell picks up its stock the first time it is used.
     private void initializeStock() {
+        if (catalog.isBounded()) {
+            return;
+        }
         for (Product p : catalog.getAllProducts()) {
-            stockLevels.put(p.getId(), p.getQuantity());
-            reservedStock.put(p.getId(), 0);
+            stock.initTotal(stock.indexFor(p.getId()), p.getQuantity());
         }
     }
 
-    // Get current stock level
-    public int getStock(String productId) {
+    // Brings back the totals the journal recorded before the last stop, then journals from here on.
+    // Totals recovered this way win over the catalog's, which may not have been saved yet.
+    // Reservations are not brought back: the carts that held them don't survive a restart.
+    private void startJournal() {
+        if (journal == null) {
+            return;
+        }
+        int restored = 0;
+        int dropped = 0;
+        for (Map.Entry<String, int[]> e : journal.getRecovered().entrySet()) {
+            String id = e.getKey();
+            int total = e.getValue()[0];
+            dropped += Math.max(0, e.getValue()[1]);
+            if (catalog.getProductById(id) == null) {
+                continue;
+            }
+            int i = stock.indexFor(id);
+            stock.setTotal(i, total);
+            updateProduct(id, i);
+            restored++;
+        }
+        if (restored > 0 || dropped > 0) {
+            log.info("Restored stock of {} products from the journal, released {} reserved units", restored, dropped);
+        }
+
+        try {
+            journal.start(stock);
+        } catch (IOException e) {
+            log.error("Inventory journal could not start, stock changes won't be journaled: {}", e.getMessage());
+        }
+    }
+
+    // Waits until this thread's stock changes are on disk, so a sale isn't forgotten by a crash
+    private void awaitJournal() {
+        if (journal != null) {
+            journal.awaitDurable();
+        }
+    }
 
-        int total = stockLevels.getOrDefault(productId, 0);
-        int reserved = reservedStock.getOrDefault(productId, 0);
+    // Index of the product's stock cell with its total filled in, or -1 if there is no such product
+    private int cell(String productId) {
+        int i = stock.indexOf(productId);
+        if (i >= 0 && StockTable.totalOf(stock.get(i)) != StockTable.UNKNOWN) {
+            return i;
+        }
+        Product product = catalog.getProductById(productId);
+        // Stock is kept under the product's own id; other spellings have none
+        if (product == null || !product.getId().equals(productId)) {
+            return -1;
+        }
+        i = stock.indexFor(productId);
+        stock.initTotal(i, product.getQuantity());
+        return i;
+    }
 
-        return Math.max(0 ,total- reserved);
+    // Get current stock level
+    public int getStock(String productId) {
+        int i = cell(productId);
+        if (i < 0) {
+            return 0;
+        }
+        long cell = stock.get(i);
+        return Math.max(0, StockTable.totalOf(cell) - StockTable.reservedOf(cell));
     }
 
     public int getTotalStock(String productId) {
-        return stockLevels.getOrDefault(productId, 0);
+        int i = cell(productId);
+        return i < 0 ? 0 : StockTable.totalOf(stock.get(i));
     }
 
     public boolean reserveStock(String productId, int quantity) {
-        int available = getStock(productId);
-        if (available >= quantity) {
-            int currentReserved = reservedStock.getOrDefault(productId, 0);
-            reservedStock.put(productId, currentReserved + quantity);
-            System.out.printf("Reserved %d units of %s%n", quantity, productId);
-            return true;
-
+        int i = cell(productId);
+        if (i < 0 || !stock.tryReserve(i, quantity)) {
+            return false;
         }
-        return false;
+        log.debug("Reserved {} units of {}", quantity, productId);
+        return true;
     }
 
     public void releaseReservation(String productId, int quantity) {
-        int currentReserved = reservedStock.getOrDefault(productId, 0);
-        int newReserved = Math.max(0, currentReserved - quantity);
-        reservedStock.put(productId, newReserved);
-        System.out.printf("Released %d units of %s%n", quantity, productId);
+        int i = cell(productId);
+        if (i < 0) {
+            return;
+        }
+        stock.release(i, quantity);
+        log.debug("Released {} units of {}", quantity, productId);
+    }
+
+    // Locks the stripes of the given cells, lowest first; returns the set to pass to unlock()
+    private long lock(int... cells) {
+        long held = 0;
+        for (int i : cells) {
+            if (i >= 0) {
+                held |= 1L << (i & (LOCK_STRIPES - 1));
+            }
+        }
+        for (long rest = held; rest != 0; rest &= rest - 1) {
+            stripes[Long.numberOfTrailingZeros(rest)].lock();
+        }
+        return held;
+    }
+
+    private void unlock(long held) {
+        for (long rest = held; rest != 0; rest &= rest - 1) {
+            stripes[Long.numberOfTrailingZeros(rest)].unlock();
+        }
+    }
+
+    // Applies reservation changes for several products at once: a positive amount reserves,
+    // a negative one releases. If any product is short, nothing is changed.
+    //
+    // Holding the products' stripes serializes this against other multi-product operations on
+    // the same products, so two carts wanting the same last units can't both get some and fail.
+    // Single reservations don't lock and may take units meanwhile; a line that comes up short
+    // undoes the lines already reserved before throwing.
+    public void reserveAll(Map<String, Integer> changes) throws InsufficientStockException {
+        String[] ids = changes.keySet().toArray(new String[0]);
+        int[] cells = new int[ids.length];
+        for (int k = 0; k < ids.length; k++) {
+            cells[k] = cell(ids[k]);
+            if (cells[k] < 0 && changes.get(ids[k]) > 0) {
+                throw new InsufficientStockException(ids[k], changes.get(ids[k]), 0);
+            }
+        }
+
+        long held = lock(cells);
+        try {
+            for (int k = 0; k < ids.length; k++) {
+                int quantity = changes.get(ids[k]);
+                if (quantity > 0 && !stock.tryReserve(cells[k], quantity)) {
+                    long cell = stock.get(cells[k]);
+                    for (int done = 0; done < k; done++) {
+                        if (changes.get(ids[done]) > 0) {
+                            stock.release(cells[done], changes.get(ids[done]));
+                        }
+                    }
+                    throw new InsufficientStockException(ids[k], quantity,
+                            Math.max(0, StockTable.totalOf(cell) - StockTable.reservedOf(cell)));
+                }
+            }
+            for (int k = 0; k < ids.length; k++) {
+                if (cells[k] >= 0 && changes.get(ids[k]) < 0) {
+                    stock.release(cells[k], -changes.get(ids[k]));
+                }
+            }
+        } finally {
+            unlock(held);
+        }
+        log.debug("Applied {} reservation changes", ids.length);
+    }
+
+    // Takes the given quantities out of stock and out of their reservations, all or nothing:
+    // if any product has fewer units in total than asked for, nothing is changed. This is what
+    // an order does with its cart's reserved units.
+    //
+    // Only code holding a product's stripe lowers its total, so the check and the updates see
+    // the same totals and no other order can get in between.
+    public void commitAll(Map<String, Integer> quantities) throws InsufficientStockException {
+        String[] ids = quantities.keySet().toArray(new String[0]);
+        int[] cells = new int[ids.length];
+        for (int k = 0; k < ids.length; k++) {
+            cells[k] = cell(ids[k]);
+            if (cells[k] < 0) {
+                throw new InsufficientStockException(ids[k], quantities.get(ids[k]), 0);
+            }
+        }
+
+        long held = lock(cells);
+        try {
+            for (int k = 0; k < ids.length; k++) {
+                int total = StockTable.totalOf(stock.get(cells[k]));
+                if (total < quantities.get(ids[k])) {
+                    throw new InsufficientStockException(ids[k], quantities.get(ids[k]), total);
+                }
+            }
+            for (int k = 0; k < ids.length; k++) {
+                stock.commit(cells[k], quantities.get(ids[k]));
+            }
+        } finally {
+            unlock(held);
+        }
+        awaitJournal();
+        for (int k = 0; k < ids.length; k++) {
+            updateProduct(ids[k], cells[k]);
+        }
+        log.debug("Committed stock for {} products", ids.length);
+    }
+
+    // Undoes commitAll() (e.g. when payment fails): the units go back into stock, still reserved
+    public void revertCommit(Map<String, Integer> quantities) {
+        String[] ids = quantities.keySet().toArray(new String[0]);
+        int[] cells = new int[ids.length];
+        for (int k = 0; k < ids.length; k++) {
+            cells[k] = stock.indexOf(ids[k]);
+        }
+
+        long held = lock(cells);
+        try {
+            for (int k = 0; k < ids.length; k++) {
+                if (cells[k] >= 0) {
+                    stock.putBack(cells[k], quantities.get(ids[k]));
+                }
+            }
+        } finally {
+            unlock(held);
+        }
+        for (int k = 0; k < ids.length; k++) {
+            if (cells[k] >= 0) {
+                updateProduct(ids[k], cells[k]);
+            }
+        }
     }
 
 
     // Reduce stock when an order is placed
     public boolean reduceStock(String productId, int quantity) {
-        int total = getTotalStock(productId);
-        if (total >= quantity) {
-            // Reduce both total and reserved
-            stockLevels.put(productId, total - quantity);
-
-            int reserved = reservedStock.getOrDefault(productId, 0);
-            reservedStock.put(productId, Math.max(0, reserved - quantity));
-
-            // Update product object
-            Product product = catalog.getProductById(productId);
-            if (product != null) {
-                product.setQuantity(total - quantity);
+        int i = cell(productId);
+        if (i < 0) {
+            return false;
+        }
+        long held = lock(i);
+        try {
+            // Reduces both total and reserved
+            if (stock.commit(i, quantity) < 0) {
+                return false;
             }
-            return true;
+        } finally {
+            unlock(held);
         }
-        return false;
+        awaitJournal();
+        updateProduct(productId, i);
+        return true;
     }
 
     // Restock or add more units
     public void restock(String productId, int amount) {
-        int current = getTotalStock(productId);
-        stockLevels.put(productId, current + amount);
+        int i = cell(productId);
+        if (i < 0) {
+            return;
+        }
+        stock.restock(i, amount);
+        updateProduct(productId, i);
+    }
+
+    // Sets the total stock from outside (a product feed reload, an admin edit); reservations are kept
+    public void resetStock(String productId, int total) {
+        int i = stock.indexFor(productId);
+        long held = lock(i);
+        try {
+            stock.setTotal(i, total);
+        } finally {
+            unlock(held);
+        }
+        updateProduct(productId, i);
+    }
 
+    // Copies the total into the Product. The total is read under the product's lock, so when
+    // two updates race, the one that writes last also writes the latest count.
+    private void updateProduct(String productId, int i) {
         Product product = catalog.getProductById(productId);
         if (product != null) {
-            product.setQuantity(current + amount);
+            synchronized (product) {
+                product.setQuantity(StockTable.totalOf(stock.get(i)));
+            }
         }
     }
+
     // Print inventory report
     public void displayInventory() {
         System.out.println("\n=== Inventory Report ===");
@@ -90,9 +322,12 @@ public class InventoryManager {
         System.out.println("----------------------------------------------------------------");
 
         for (Product p : catalog.getAllProducts()) {
-            int total = getTotalStock(p.getId());
-            int reserved = reservedStock.getOrDefault(p.getId(), 0);
-            int available = getStock(p.getId());
+            int i = cell(p.getId());
+            // One read, so the three columns agree
+            long cell = i < 0 ? StockTable.pack(0, 0) : stock.get(i);
+            int total = StockTable.totalOf(cell);
+            int reserved = StockTable.reservedOf(cell);
+            int available = Math.max(0, total - reserved);
 
             System.out.printf("%-10s %-20s %-10d %-10d %-10d%n",
                     p.getId(), p.getName(), total, reserved, available);
@@ -0,0 +1,166 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A size-bounded cache that evicts the least recently used entry.
+ *
+ * Entries are spread over 16 segments by key hash, each an access-ordered
+ * LinkedHashMap behind its own lock, so eviction is LRU within a segment
+ * and lookups for different keys rarely wait on each other. Misses are
+ * loaded outside the lock; two threads missing the same key at once may
+ * both load it, and the first value stored wins.
+ *
+ * Hits, misses, evictions and load latency are recorded for metrics.
+ */
+public class LruCache<K, V> {
+    private static final int SEGMENTS = 16;
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+    private final String name;
+    private final int capacity;
+    private final Segment<K, V>[] segments;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder loadMicros = new LongAdder();
+    private final RequestMetrics.Histogram loadLatency = new RequestMetrics.Histogram();
+
+    private static class Segment<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        private final int limit;
+        private final LongAdder evictions;
+
+        Segment(int limit, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.limit = limit;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() > limit) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /** name is used as the metric label; capacity is spread evenly over the segments. */
+    @SuppressWarnings("unchecked")
+    public LruCache(String name, int capacity) {
+        if (capacity < SEGMENTS) {
+            throw new IllegalArgumentException("Cache capacity must be at least " + SEGMENTS + ": " + capacity);
+        }
+        this.name = name;
+        this.capacity = capacity;
+        this.segments = (Segment<K, V>[]) new Segment<?, ?>[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<>(capacity / SEGMENTS, evictions);
+        }
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /** The cached value, or loader's value for the key. A null from loader is returned but not cached. */
+    public V get(K key, Function<K, V> loader) {
+        Segment<K, V> segment = segmentFor(key);
+        V value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        if (value != null) {
+            hits.increment();
+            return value;
+        }
+
+        misses.increment();
+        long start = System.nanoTime();
+        V loaded = loader.apply(key);
+        long micros = (System.nanoTime() - start) / 1000;
+        loadMicros.add(micros);
+        loadLatency.record(micros);
+        if (loaded == null) {
+            return null;
+        }
+        synchronized (segment) {
+            V raced = segment.putIfAbsent(key, loaded);
+            return raced != null ? raced : loaded;
+        }
+    }
+
+    public V getIfPresent(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    public void put(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    public V remove(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.remove(key);
+        }
+    }
+
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int total = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                total += segment.size();
+            }
+        }
+        return total;
+    }
+
+    public int getCapacity() { return capacity; }
+    public long getHits() { return hits.sum(); }
+    public long getMisses() { return misses.sum(); }
+    public long getEvictions() { return evictions.sum(); }
+
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public void writeTo(PrometheusText out) {
+        out.gauge("shop_cache_entries", "Entries held, by cache.", size(), "cache", name);
+        out.gauge("shop_cache_capacity", "Maximum entries, by cache.", capacity, "cache", name);
+        out.counter("shop_cache_hits_total", "Lookups answered from the cache.", getHits(), "cache", name);
+        out.counter("shop_cache_misses_total", "Lookups that had to load the value.", getMisses(), "cache", name);
+        out.counter("shop_cache_evictions_total", "Entries evicted to stay within capacity.", getEvictions(), "cache", name);
+        out.gauge("shop_cache_hit_ratio", "Hits over all lookups since start.", getHitRate(), "cache", name);
+
+        String metric = "shop_cache_load_duration_seconds";
+        out.describe(metric, "summary", "Time to load a missing entry, by cache.");
+        long[] values = loadLatency.quantiles(QUANTILES);
+        for (int i = 0; i < QUANTILES.length; i++) {
+            out.line(metric, values[i] / 1e6, "cache", name, "quantile", Double.toString(QUANTILES[i]));
+        }
+        out.line(metric + "_sum", loadMicros.sum() / 1e6, "cache", name);
+        out.line(metric + "_count", getMisses(), "cache", name);
+    }
+}
@@ -1,8 +1,16 @@
 import javax.xml.crypto.Data;
+import java.io.IOException;
 import java.util.Scanner;
 import exceptions.InvalidCredentialsException;
 
 public class Main {
+    static {
+        // Route slf4j loggers to the async console writer unless another provider was chosen
+        if (System.getProperty("slf4j.provider") == null) {
+            System.setProperty("slf4j.provider", AsyncLogServiceProvider.class.getName());
+        }
+    }
+
     public static void main(String[] args) {
         System.out.println("=== Your Local Shop ===");
         System.out.println("Starting system...\n");
@@ -19,13 +27,38 @@ public class Main {
         // Load catalog and inventory
         ProductCatalog catalog = ProductCatalog.getInstance();
         catalog.loadProducts("src/data/products.json");
-        InventoryManager inventory = new InventoryManager(catalog);
+        // Stock and reservations are journaled so a crash doesn't lose them (shop.journal.dir)
+        InventoryJournal journal = null;
+        try {
+            journal = InventoryJournal.fromSystemProperties();
+        } catch (IOException e) {
+            System.err.println("Inventory journal unavailable, running without it: " + e.getMessage());
+        }
+        InventoryManager inventory = new InventoryManager(catalog, journal);
+
+        // Pick up edits to the product feed while running (-Dshop.catalog.watch=false to turn off)
+        ProductFeedWatcher feedWatcher = null;
+        if (!catalog.isBounded() && !"false".equals(System.getProperty("shop.catalog.watch"))) {
+            feedWatcher = new ProductFeedWatcher("src/data/products.json", catalog, inventory);
+            feedWatcher.start();
+        }
 
         // Shutdown hook
         final DatabaseConnection finalDb = db;
+        final ProductFeedWatcher finalWatcher = feedWatcher;
+        final InventoryJournal finalJournal = journal;
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("\n=== Shutting Down ===");
+            if (finalWatcher != null) {
+                finalWatcher.stop();
+            }
+            if (finalJournal != null) {
+                finalJournal.close();
+            }
+            // Saves stock and price changes still waiting, before the connection goes
+            ProductWriteBehind.getInstance().shutdown();
             finalDb.close();
+            AsyncLogWriter.getInstance().shutdown();
         }));
 
 
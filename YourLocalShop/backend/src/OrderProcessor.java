@@ -1,13 +1,19 @@
 import java.util.UUID;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import exceptions.InsufficientStockException;
 import exceptions.PaymentProcessException;
 import java.sql.*;
 import java.time.LocalDateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class OrderProcessor {
 
+    private static final Logger log = LoggerFactory.getLogger(OrderProcessor.class);
+
     private final InventoryManager inventory;
 
     public OrderProcessor(InventoryManager inventory) {
@@ -30,7 +36,7 @@ public class OrderProcessor {
             throw new IllegalArgumentException("Order cannot be null");
         }
 
-        System.out.println("Processing order: " + order.getOrderId());
+        log.info("Processing order: {}", order.getOrderId());
 
         // 1. Save order to database
         saveOrderToDatabase(order);
@@ -53,7 +59,7 @@ public class OrderProcessor {
         // 5. Notify observers (statistics generator, email service, etc.)
         notifyObservers(order);
 
-        System.out.println("Order " + order.getOrderId() + " processed successfully");
+        log.info("Order {} processed successfully", order.getOrderId());
     }
 
     private void saveOrderToDatabase(Order order) {
@@ -70,9 +76,9 @@ public class OrderProcessor {
             ps.setString(6, order.getStatus().toString());
             ps.setString(7, order.getOrderDate().toString());
             ps.executeUpdate();
-            System.out.println("Order saved to database: " + order.getOrderId());
+            log.debug("Order saved to database: {}", order.getOrderId());
         } catch (Exception e) {
-            System.err.println("Failed to save order: " + e.getMessage());
+            log.error("Failed to save order: {}", e.getMessage());
             throw new RuntimeException("Database error while saving order", e);
         }
     }
@@ -92,9 +98,9 @@ public class OrderProcessor {
                 ps.setDouble(6, item.getSubtotal());
                 ps.executeUpdate();
             }
-            System.out.println("Order items saved to database");
+            log.debug("Order items saved to database");
         } catch (Exception e) {
-            System.err.println("Failed to save order items: " + e.getMessage());
+            log.error("Failed to save order items: {}", e.getMessage());
             throw new RuntimeException("Database error while saving order items", e);
         }
     }
@@ -114,9 +120,9 @@ public class OrderProcessor {
             ps.setString(7, shipment.getDeliveryDate() != null ? shipment.getDeliveryDate().toString() : null);
             ps.setString(8, shipment.getDeliveryAddress());
             ps.executeUpdate();
-            System.out.println("Shipment saved to database: " + shipment.getTrackingNumber());
+            log.debug("Shipment saved to database: {}", shipment.getTrackingNumber());
         } catch (Exception e) {
-            System.err.println("Failed to save shipment: " + e.getMessage());
+            log.error("Failed to save shipment: {}", e.getMessage());
             throw new RuntimeException("Database error while saving shipment", e);
         }
     }
@@ -132,7 +138,7 @@ public class OrderProcessor {
             ps.setString(4, shipment.getShipmentId());
             ps.executeUpdate();
         } catch (Exception e) {
-            System.err.println("Failed to update shipment: " + e.getMessage());
+            log.warn("Failed to update shipment: {}", e.getMessage());
         }
     }
 
@@ -145,19 +151,18 @@ public class OrderProcessor {
             ps.setString(2, invoice.getCustomer().getUsername());
             ps.setString(3, LocalDateTime.now().toString());
             ps.executeUpdate();
-            System.out.println("Invoice saved to database");
+            log.debug("Invoice saved to database");
         } catch (Exception e) {
-            System.err.println("Failed to save invoice: " + e.getMessage());
+            log.error("Failed to save invoice: {}", e.getMessage());
             throw new RuntimeException("Database error while saving invoice", e);
         }
     }
 
     /**
      * Process the current cart into a paid order with shipment and invoice.
-     * - Validates stock
      * - Builds and confirms Order
-     * - Charges PaymentMethod
-     * - Reduces stock
+     * - Takes every line out of stock at once, or none if one is short
+     * - Charges PaymentMethod, putting the stock back if that fails
      * - Creates Shipment and Invoice
      * - Clears cart
      */
@@ -175,16 +180,10 @@ public class OrderProcessor {
             throw new IllegalStateException("Cart is empty.");
         }
 
-        // 1) Validate stock first - REPLACE lines 47-52 with exception throwing
+        // 1) Units per product; the cart holds them reserved
+        Map<String, Integer> lines = new LinkedHashMap<>();
         for (CartItem ci : cart.getItems()) {
-            int available = cart.getInventory().getStock(ci.getProduct().getId());
-            if (available < ci.getQuantity()) {
-                throw new InsufficientStockException(
-                        ci.getProduct().getId(),
-                        ci.getQuantity(),
-                        available
-                );
-            }
+            lines.merge(ci.getProduct().getId(), ci.getQuantity(), Integer::sum);
         }
 
         // 2) Create Order using Builder pattern
@@ -213,26 +212,24 @@ public class OrderProcessor {
             throw new IllegalStateException("Failed to confirm order: " + e.getMessage());
         }
 
-        // 4) Charge payment on final total - REPLACE lines 70-73 with exception throwing
+        // 4) Take the whole order out of stock before charging, so a paid order always has its units
+        inventory.commitAll(lines);
+
+        // 5) Charge payment on final total
         double amount = order.getTotal();
-        boolean paid = paymentMethod.processPayment(amount);
+        boolean paid = false;
+        try {
+            paid = paymentMethod.processPayment(amount);
+        } finally {
+            if (!paid) {
+                inventory.revertCommit(lines);
+            }
+        }
         if (!paid) {
             throw new PaymentProcessException("Payment failed for amount: $" +
                     String.format("%.2f", amount));
         }
-
-        // 5) Reduce stock after successful payment
-        for (CartItem ci : cart.getItems()) {
-
-            inventory.releaseReservation(ci.getProduct().getId(), ci.getQuantity());
-
-            boolean reduced = inventory.reduceStock(ci.getProduct().getId(), ci.getQuantity());
-            if (!reduced) {
-                throw new IllegalStateException("Failed to reduce stock for product: " + ci.getProduct().getId());
-            } else {
-                System.out.printf("Reduced stock: %s - %d%n", ci.getProduct().getName(), ci.getQuantity());
-            }
-        }
+        log.debug("Reduced stock for {} products", lines.size());
 
         // 6) Create shipment using Builder pattern
         String shipmentId = "SHP-" + UUID.randomUUID().toString().substring(0, 8).toUpperCase();
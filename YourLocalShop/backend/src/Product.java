@@ -1,5 +1,4 @@
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
+import java.util.Objects;
 
 public class Product {
     private String id;
@@ -14,7 +13,7 @@ public class Product {
     public Product(String id, String name, String category, String description, double price, int quantity) {
         this.id = id;
         this.name = name;
-        this.category = category;
+        this.category = CategoryDictionary.intern(category);
         this.description = description;
         this.price = price;
         this.quantity = quantity;
@@ -26,7 +25,7 @@ public class Product {
     public Product(String id, String name, String category, String description, double price, int quantity, double discountPercentage) {
         this.id = id;
         this.name = name;
-        this.category = category;
+        this.category = CategoryDictionary.intern(category);
         this.description = description;
         this.price = price;
         this.quantity = quantity;
@@ -46,6 +45,10 @@ public class Product {
 
     // Calculate discounted price
     public double getDiscountedPrice() {
+        return discountedPrice(price, discountPercentage);
+    }
+
+    static double discountedPrice(double price, double discountPercentage) {
         if (discountPercentage <= 0) {
             return price;
         }
@@ -54,44 +57,85 @@ public class Product {
 
     // Setters
     public void setQuantity(int quantity) {
+        int oldQuantity = this.quantity;
         this.quantity = quantity;
         this.available = quantity > 0;
         updateInDatabase();
+        ProductCatalog.getInstance().stockChanged(this, oldQuantity);
+        notifyCatalog();
     }
 
-    public void setName(String name) { this.name = name; }
-    public void setCategory(String category) { this.category = category; }
-    public void setDescription(String description) { this.description = description; }
+    public void setName(String name) {
+        this.name = name;
+        ProductCatalog.getInstance().textChanged(this);
+        notifyCatalog();
+    }
+    public void setCategory(String category) {
+        String oldCategory = this.category;
+        this.category = CategoryDictionary.intern(category);
+        ProductCatalog.getInstance().categoryChanged(this, oldCategory);
+        notifyCatalog();
+    }
+    public void setDescription(String description) {
+        this.description = description;
+        ProductCatalog.getInstance().textChanged(this);
+        notifyCatalog();
+    }
 
     public void setPrice(double price) {
         if (price < 0) throw new IllegalArgumentException("Price cannot be negative.");
+        double oldPrice = this.price;
         this.price = price;
         updateInDatabase();
+        ProductCatalog.getInstance().priceChanged(this, oldPrice, discountPercentage);
+        notifyCatalog();
     }
 
     public void setDiscountPercentage(double discountPercentage) {
         if (discountPercentage < 0 || discountPercentage > 100) {
             throw new IllegalArgumentException("Discount percentage must be between 0 and 100.");
         }
+        double oldDiscount = this.discountPercentage;
         this.discountPercentage = discountPercentage;
         updateInDatabase();
+        ProductCatalog.getInstance().priceChanged(this, price, oldDiscount);
+        notifyCatalog();
+    }
+
+    // Shares strings repeated across products; for instances Gson built without a constructor
+    void compact() {
+        this.category = CategoryDictionary.intern(category);
+    }
+
+    // True if everything but the stock matches; used to diff a reloaded product feed
+    boolean sameDetails(Product other) {
+        return Objects.equals(name, other.name)
+                && Objects.equals(category, other.category)
+                && Objects.equals(description, other.description)
+                && Double.compare(price, other.price) == 0
+                && Double.compare(discountPercentage, other.discountPercentage) == 0;
+    }
+
+    // Takes the fields of a reloaded copy of this product, all but its stock, which only
+    // InventoryManager sets. Neither saves nor notifies the catalog; a feed reload does both
+    // for all products at once.
+    void copyFrom(Product other) {
+        this.name = other.name;
+        this.category = CategoryDictionary.intern(other.category);
+        this.description = other.description;
+        this.price = other.price;
+        this.discountPercentage = other.discountPercentage;
+    }
+
+    // Lets cached catalog responses know this product changed
+    private void notifyCatalog() {
+        ProductCatalog.getInstance().markChanged();
     }
 
 
+    // Saved in the background with other pending changes; see ProductWriteBehind
     private void updateInDatabase() {
-        DatabaseConnection db = DatabaseConnection.getInstance();
-        String updateSQL = "UPDATE products SET quantity = ?, available = ?, price = ?, discount_percentage = ? WHERE id = ?";
-        try (PreparedStatement pstmt = db.getConnection().prepareStatement(updateSQL)){
-            pstmt.setInt(1, this.quantity);
-            pstmt.setInt(2, this.available ? 1: 0);
-            pstmt.setDouble(3, this.price);
-            pstmt.setDouble(4, this.discountPercentage);  // ADDED
-            pstmt.setString(5, this.id);
-            pstmt.executeUpdate();
-
-        } catch (SQLException e) {
-            System.err.println("Error updating product info in database: " + e.getMessage());
-        }
+        ProductWriteBehind.getInstance().markDirty(this);
     }
 
     @Override
@@ -1,23 +1,59 @@
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.beans.Statement;
-import java.io.FileReader;
 import java.io.IOException;
-import java.lang.reflect.Type;
-import java.sql.PreparedStatement;
+import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ProductCatalog {
+    private static final Logger log = LoggerFactory.getLogger(ProductCatalog.class);
+
     private static ProductCatalog instance;
-    private List<Product> products = new ArrayList<>();
     private DatabaseConnection dbConnection;
 
+    // Products and their indexes as one immutable value, replaced on every change.
+    // Its version is bumped on every change to a product and keys cached responses.
+    private final AtomicReference<CatalogState> state = new AtomicReference<>(CatalogState.EMPTY);
+    private final SearchIndex search = new SearchIndex();
+    // Price, discount and stock orders, updated in place rather than per version
+    private final BrowseIndex browse = new BrowseIndex();
+
+    // Type-ahead index; rebuilt at most once per refresh interval while the catalog keeps changing
+    private static final long SUGGEST_REFRESH_MILLIS =
+            TimeUnit.SECONDS.toMillis(Long.getLong("shop.suggest.refreshSeconds", 30));
+    private volatile SuggestIndex suggestIndex;
+    private volatile long suggestBuiltAt;
+    private final AtomicBoolean suggestRebuilding = new AtomicBoolean();
+
+    // Bounded mode (shop.catalog.cacheSize > 0) keeps only recently used products in memory and
+    // answers everything else from the products table. Both are null when the whole catalog is loaded.
+    private final ProductStore store;
+    private final LruCache<String, Product> cache;
+    private volatile Map.Entry<Long, List<CategoryIndex.Facet>> storeFacets;
+
     private ProductCatalog() {
         this.dbConnection = DatabaseConnection.getInstance();
+        int cacheSize = Integer.getInteger("shop.catalog.cacheSize", 0);
+        if (cacheSize > 0) {
+            this.store = new ProductStore(dbConnection);
+            this.cache = new LruCache<>("products", cacheSize);
+        } else {
+            this.store = null;
+            this.cache = null;
+        }
     }
 
 
@@ -29,55 +65,67 @@ public class ProductCatalog {
     }
 
     public void loadProducts(String filePath) {
+        if (isBounded()) {
+            prepareStore(filePath);
+            return;
+        }
 
         loadProductsDatabase();
 
-        if(products.isEmpty()){
-            loadProductsJSON(filePath);
-            syncProductsToDatabase();
+        if(getAllProducts().isEmpty()){
+            // First boot: stream the file into the catalog and the products table in one pass
+            Connection connection = null;
+            try {
+                connection = dbConnection.getConnection();
+            } catch (IllegalStateException e) {
+                log.warn("Not saving products: {}", e.getMessage());
+            }
+            importProductsJSON(filePath, connection);
         }
     }
 
     // Loading from json
     public void loadProductsJSON(String filePath) {
-        Gson gson = new Gson();
-        try (FileReader reader = new FileReader(filePath)) {
-            Type productListType = new TypeToken<ArrayList<Product>>() {}.getType();
-            products = gson.fromJson(reader, productListType);
-        } catch (IOException e) {
+        importProductsJSON(filePath, null);
+    }
+
+    private void importProductsJSON(String filePath, Connection connection) {
+        try {
+            replaceProducts(ProductLoader.fromSystemProperties().importJson(filePath, connection));
+        } catch (IOException | RuntimeException e) {
             System.out.println("Error loading products: " + e.getMessage());
         }
     }
 
+    // Bounded mode: makes sure the table is indexed and filled, without loading it
+    private void prepareStore(String filePath) {
+        try {
+            store.ensureIndexes();
+            int count = store.count();
+            if (count == 0) {
+                count = ProductLoader.fromSystemProperties().importJson(filePath, dbConnection.getConnection(), p -> {});
+            }
+            markChanged();
+            log.info("Catalog: {} products in the database, caching up to {}", count, cache.getCapacity());
+        } catch (IOException | RuntimeException e) {
+            log.error("Error preparing product database: {}", e.getMessage());
+        }
+    }
+
     // UPDATED: Now loads discount from database
     public void loadProductsDatabase() {
-        products.clear();
+        List<Product> loaded = new ArrayList<>();
         String query = "SELECT * FROM products";
 
         try (java.sql.Statement stmt = dbConnection.getConnection().createStatement(); ResultSet rs = stmt.executeQuery(query)) {
 
             while (rs.next()) {
-                // Try to get discount, default to 0 if column doesn't exist
-                double discount = 0.0;
-                try {
-                    discount = rs.getDouble("discount_percentage");
-                } catch (SQLException e) {
-                    // Column doesn't exist yet, use default
-                }
-
-                Product p = new Product(
-                        rs.getString("id"),
-                        rs.getString("name"),
-                        rs.getString("category"),
-                        rs.getString("description"),
-                        rs.getDouble("price"),
-                        rs.getInt("quantity"),
-                        discount  // ADDED
-                );
-                products.add(p);
+                Product p = ProductStore.fromRow(rs);
+                loaded.add(p);
             }
 
-            System.out.println("Loaded: " + products.size() + " products (from database)");
+            replaceProducts(loaded);
+            System.out.println("Loaded: " + loaded.size() + " products (from database)");
 
         } catch (SQLException e) {
             System.err.println("Error loading products from database: " + e.getMessage());
@@ -85,74 +133,294 @@ public class ProductCatalog {
     }
 
 
-    private void syncProductsToDatabase() {
-        String insertSQL = "INSERT OR REPLACE INTO products (id, name, category, description, price, quantity, available, discount_percentage) VALUES (?,?,?,?,?,?,?,?)";
+    // Publishes a freshly loaded product list with new indexes
+    private synchronized void replaceProducts(List<Product> loaded) {
+        search.rebuild(loaded);
+        browse.rebuild(loaded);
+        state.updateAndGet(s -> CatalogState.of(s.getVersion() + 1, loaded));
+    }
 
-        try (PreparedStatement pstmt = dbConnection.getConnection().prepareStatement(insertSQL)){
+    /**
+     * Applies a diff from a reloaded product feed. Updated products are
+     * changed in place, since carts hold on to them; the product list and
+     * its indexes are published as a new state, so readers never wait.
+     * The caller has already saved the changes.
+     */
+    synchronized void applyFeedChanges(CatalogDiff diff) {
+        for (CatalogDiff.Update u : diff.getUpdated()) {
+            // Taken out under its old keys and put back under the new ones
+            browse.remove(u.getCurrent());
+            u.getCurrent().copyFrom(u.getIncoming());
+            browse.add(u.getCurrent());
+        }
 
-            for(Product p : products){
+        Set<Product> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        removed.addAll(diff.getDeleted());
+        List<Product> current = getAllProducts();
+        List<Product> next = new ArrayList<>(current.size() + diff.getInserted().size());
+        for (Product p : current) {
+            if (!removed.contains(p)) {
+                next.add(p);
+            }
+        }
+        next.addAll(diff.getInserted());
 
-                pstmt.setString(1, p.getId());
-                pstmt.setString(2, p.getName());
-                pstmt.setString(3, p.getCategory());
-                pstmt.setString(4, p.getDescription());
-                pstmt.setDouble(5, p.getPrice());
-                pstmt.setInt(6, p.getQuantity());
-                pstmt.setInt(7, p.isAvailable()? 1:0);
-                pstmt.setDouble(8, p.getDiscountPercentage()); // ADDED
-                pstmt.executeUpdate();
+        for (Product p : diff.getDeleted()) {
+            search.remove(p);
+            browse.remove(p);
+        }
+        for (CatalogDiff.Update u : diff.getUpdated()) {
+            search.update(u.getCurrent());
+        }
+        for (Product p : diff.getInserted()) {
+            search.add(p);
+            browse.add(p);
+        }
+        state.updateAndGet(s -> CatalogState.of(s.getVersion() + 1, next));
+    }
+
+    // Ids are matched case-insensitively
+    static String normalizeId(String id) {
+        return id.toLowerCase(Locale.ROOT);
+    }
+
+    // The current catalog; use one state throughout a request to get a consistent view
+    public CatalogState getState() {
+        return state.get();
+    }
+
+    public long getVersion() {
+        return state.get().getVersion();
+    }
+
+    // Called whenever a product's fields are edited
+    public void markChanged() {
+        state.updateAndGet(s -> s.withVersion(s.getVersion() + 1));
+    }
+
+    // Returns the lookup index for the current version
+    public CatalogIndex getIndex() {
+        return state.get().getIndex();
+    }
 
+    /**
+     * Name suggestions for a type-ahead prefix. The index is built on first
+     * use; after that, if the catalog changed and the refresh interval has
+     * passed, it is rebuilt in the background while callers keep using the
+     * old one.
+     */
+    public List<SuggestIndex.Suggestion> suggest(String prefix, int limit, SuggestIndex.Rank rank) {
+        // Checked here for both backends: SQLite reads LIMIT -1 as no limit at all
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be at least 1.");
+        }
+        if (isBounded()) {
+            return store.suggest(prefix, limit, rank);
+        }
+        SuggestIndex current = suggestIndex;
+        if (current == null) {
+            synchronized (suggestRebuilding) {
+                if (suggestIndex == null) {
+                    rebuildSuggestIndex();
+                }
+                current = suggestIndex;
             }
-            System.out.println("Synced " + products.size() + " products to database");
-        } catch (Exception e) {
-            System.err.println("Error syncing products: " + e.getMessage());
+        } else if (current.getVersion() != getVersion()
+                && System.currentTimeMillis() - suggestBuiltAt >= SUGGEST_REFRESH_MILLIS
+                && suggestRebuilding.compareAndSet(false, true)) {
+            Thread.startVirtualThread(() -> {
+                try {
+                    rebuildSuggestIndex();
+                } finally {
+                    suggestRebuilding.set(false);
+                }
+            });
         }
+        return current.suggest(prefix, limit, rank);
+    }
 
+    private void rebuildSuggestIndex() {
+        CatalogState snapshot = state.get();
+        suggestIndex = SuggestIndex.build(snapshot.getVersion(), snapshot.getProducts(), loadUnitsSold());
+        suggestBuiltAt = System.currentTimeMillis();
     }
 
+    // Units sold per product id, from past orders
+    private Map<String, Integer> loadUnitsSold() {
+        Map<String, Integer> sold = new HashMap<>();
+        String query = "SELECT product_id, SUM(quantity) AS units FROM order_items GROUP BY product_id";
+        try (java.sql.Statement stmt = dbConnection.getConnection().createStatement(); ResultSet rs = stmt.executeQuery(query)) {
+            while (rs.next()) {
+                sold.put(rs.getString("product_id"), rs.getInt("units"));
+            }
+        } catch (SQLException | IllegalStateException e) {
+            // Rank by name alone rather than fail suggestions
+            log.error("Error loading sales for suggestions: {}", e.getMessage());
+        }
+        return sold;
+    }
+
+    // Filtered, sorted and paged product listing
+    public ProductQuery.Page query(ProductQuery query) {
+        if (isBounded()) {
+            ProductQuery.Page page = store.page(query);
+            return new ProductQuery.Page(preferCached(page.getItems()), page.getTotal(), page.getNextCursor());
+        }
+        if (BrowseIndex.handles(query)) {
+            return browse.run(query);
+        }
+        return getIndex().run(query);
+    }
+
+    // Unmodifiable; later changes to the catalog don't affect a list already returned.
+    // In bounded mode this reads the whole table, so only console reports should use it.
     public List<Product> getAllProducts() {
-        return products;
+        if (isBounded()) {
+            return List.copyOf(preferCached(store.findAll()));
+        }
+        return state.get().getProducts();
     }
 
     public Product getProductById(String id) {
-        for (Product p : products) {
-            if (p.getId().equalsIgnoreCase(id)) {
-                return p;
-            }
+        if (isBounded()) {
+            // A product evicted with changes not yet saved comes back as it is, not as the row was
+            return id == null ? null : cache.get(normalizeId(id), k -> {
+                Product pending = ProductWriteBehind.getInstance().getPending(id);
+                return pending != null ? pending : store.findById(id);
+            });
         }
-        return null;
+        return state.get().getProductById(id);
     }
 
+    // Returns a cached, unmodifiable list
     public List<Product> searchByCategory(String category) {
-        List<Product> results = new ArrayList<>();
-        for (Product p : products) {
-            if (p.getCategory().equalsIgnoreCase(category)) {
-                results.add(p);
+        if (isBounded()) {
+            return List.copyOf(preferCached(store.findByCategory(category)));
+        }
+        return state.get().getCategories().get(category);
+    }
+
+    public List<CategoryIndex.Facet> getCategoryFacets() {
+        if (isBounded()) {
+            // A GROUP BY over the whole table, so kept until the catalog changes
+            long v = getVersion();
+            Map.Entry<Long, List<CategoryIndex.Facet>> current = storeFacets;
+            if (current == null || current.getKey() != v) {
+                current = Map.entry(v, List.copyOf(store.facets()));
+                storeFacets = current;
+            }
+            return current.getValue();
+        }
+        return state.get().getCategories().getFacets();
+    }
+
+    // Ranked full-text search over name, category and description
+    public SearchIndex.Result search(String query, int limit) {
+        // Checked here for both backends: SQLite reads LIMIT -1 as no limit at all
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be at least 1.");
+        }
+        if (isBounded()) {
+            SearchIndex.Result result = store.search(query, limit);
+            return new SearchIndex.Result(preferCached(result.getItems()), result.getTotal());
+        }
+        return search.search(query, limit);
+    }
+
+    public boolean isBounded() {
+        return store != null;
+    }
+
+    // The product cache in bounded mode, otherwise null
+    public LruCache<String, Product> getCache() {
+        return cache;
+    }
+
+    // Swaps rows read from the table for cached instances, which carts may already hold.
+    // Rows not in the cache are returned as they are rather than filling it from a scan.
+    private List<Product> preferCached(List<Product> rows) {
+        List<Product> result = new ArrayList<>(rows.size());
+        for (Product row : rows) {
+            Product cached = cache.getIfPresent(normalizeId(row.getId()));
+            if (cached == null) {
+                cached = ProductWriteBehind.getInstance().getPending(row.getId());
             }
+            result.add(cached != null ? cached : row);
+        }
+        return result;
+    }
+
+    // Called by Product.setCategory so the category index follows the move
+    synchronized void categoryChanged(Product p, String oldCategory) {
+        if (!isBounded() && getProductById(p.getId()) == p) {
+            state.updateAndGet(s -> s.withCategoryMoved(p, oldCategory));
+            search.update(p);
+        }
+    }
+
+    // Called by Product.setPrice and setDiscountPercentage with the values before the change
+    void priceChanged(Product p, double oldPrice, double oldDiscount) {
+        if (!isBounded() && getProductById(p.getId()) == p) {
+            browse.priceChanged(p, oldPrice, oldDiscount);
+            CatalogState s = state.get();
+            s.sortKeyChanged(ProductQuery.SortField.PRICE);
+            s.sortKeyChanged(ProductQuery.SortField.DISCOUNT);
+        }
+    }
+
+    // Called by Product.setQuantity with the quantity before the change
+    void stockChanged(Product p, int oldQuantity) {
+        if (!isBounded() && getProductById(p.getId()) == p) {
+            browse.stockChanged(p, oldQuantity);
+            state.get().sortKeyChanged(ProductQuery.SortField.STOCK);
+        }
+    }
+
+    // Called by Product when its name or description changes
+    void textChanged(Product p) {
+        if (!isBounded() && getProductById(p.getId()) == p) {
+            search.update(p);
+            state.get().sortKeyChanged(ProductQuery.SortField.NAME);
         }
-        return results;
     }
 
     public void displayAll() {
         System.out.println("\n=== Product Catalog ===");
-        for (Product p : products) {
+        for (Product p : getAllProducts()) {
             System.out.println(p);
         }
     }
 
     // Add new products via admin page
-    public void adminAddProduct(Product p) {
+    // Structural changes are serialized on the catalog; field edits (markChanged) only CAS the version
+    public synchronized void adminAddProduct(Product p) {
         if (getProductById(p.getId()) != null) {
             throw new IllegalArgumentException("ID exists: " + p.getId());
         }
-        products.add(p);
+        if (isBounded()) {
+            // The caller inserts the row; cache it so it is found before that happens
+            cache.put(normalizeId(p.getId()), p);
+            markChanged();
+            return;
+        }
+        state.updateAndGet(s -> s.withAdded(p));
+        search.add(p);
+        browse.add(p);
     }
 
     // Delete existing products via admin page
-    public boolean deleteProductById(String id) {
+    public synchronized boolean deleteProductById(String id) {
         Product p = getProductById(id);
         if (p == null) return false;
-        products.remove(p);
+        if (isBounded()) {
+            // The caller deletes the row
+            cache.remove(normalizeId(id));
+            markChanged();
+            return true;
+        }
+        state.updateAndGet(s -> s.withRemoved(p));
+        search.remove(p);
+        browse.remove(p);
         return true;
     }
 }
\ No newline at end of file
@@ -0,0 +1,176 @@
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reloads the catalog when products.json changes, without a restart.
+ *
+ * A daemon thread watches the file's directory. Once the file has stopped
+ * changing for a moment it is streamed in, diffed against the catalog
+ * (see CatalogDiff), and only the differences are applied: first to
+ * SQLite in one batched transaction on a connection of its own, then to
+ * the catalog, its indexes and the inventory. A file that doesn't parse
+ * (e.g. caught half-written) or a failed write leaves everything as it
+ * was, and the next change tries again.
+ *
+ * Not used in bounded catalog mode, where the database is the catalog.
+ */
+public class ProductFeedWatcher {
+    private static final Logger log = LoggerFactory.getLogger(ProductFeedWatcher.class);
+
+    // Editors often save in several steps; wait for this long without events
+    private static final long QUIET_MILLIS = 500;
+
+    private final Path file;
+    private final ProductCatalog catalog;
+    private final InventoryManager inventory;
+    private final ProductLoader loader = ProductLoader.fromSystemProperties();
+    // Started by start(); stop() may run on another thread, e.g. a shutdown hook
+    private volatile Thread thread;
+    private WatchService watcher;
+    private volatile boolean running;
+
+    // Stock per product in the feed version last applied
+    private Map<String, Integer> feedStock = Map.of();
+
+    public ProductFeedWatcher(String filePath, ProductCatalog catalog, InventoryManager inventory) {
+        this.file = Path.of(filePath).toAbsolutePath();
+        this.catalog = catalog;
+        this.inventory = inventory;
+    }
+
+    public void start() {
+        try {
+            feedStock = CatalogDiff.stockOf(loader.importJson(file.toString(), null));
+        } catch (IOException | RuntimeException e) {
+            // Without a baseline the first reload takes stock from the feed and deletes nothing
+            log.warn("Could not read {} for hot reload: {}", file, e.getMessage());
+        }
+        // Registered before returning so no change made after start() is missed
+        try {
+            watcher = file.getFileSystem().newWatchService();
+            // Watch the directory so the file being replaced (save to temp + rename) is seen too
+            file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            log.error("Not watching {} for catalog changes: {}", file, e.getMessage());
+            return;
+        }
+        running = true;
+        thread = new Thread(this::watchLoop, "product-feed-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("Watching {} for catalog changes", file);
+    }
+
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void watchLoop() {
+        try (WatchService ws = watcher) {
+            while (running) {
+                WatchKey key = ws.take();
+                boolean changed = concernsFile(key);
+                if (!changed) {
+                    continue;
+                }
+                WatchKey more;
+                while ((more = ws.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    concernsFile(more);
+                }
+                reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopping
+        } catch (IOException e) {
+            log.error("Product feed watcher stopped: {}", e.getMessage());
+        }
+    }
+
+    // Drains the key's events and re-arms it; true if any may be about the file
+    private boolean concernsFile(WatchKey key) {
+        boolean match = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || file.getFileName().equals(event.context())) {
+                match = true;
+            }
+        }
+        key.reset();
+        return match;
+    }
+
+    void reload() {
+        long start = System.nanoTime();
+        List<Product> feed;
+        try {
+            feed = loader.importJson(file.toString(), null);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Not reloading {}: {}", file, e.getMessage());
+            return;
+        }
+
+        CatalogDiff diff;
+        // Holds off admin adds and deletes, not readers, so the diff still holds when applied
+        synchronized (catalog) {
+            diff = CatalogDiff.compute(catalog.getState(), feed, feedStock);
+            if (!diff.isEmpty()) {
+                if (!save(diff)) {
+                    return;
+                }
+                catalog.applyFeedChanges(diff);
+                // A pending write may have read a product before it took the new values
+                for (CatalogDiff.Update u : diff.getUpdated()) {
+                    ProductWriteBehind.getInstance().markDirty(u.getCurrent());
+                }
+            }
+        }
+        feedStock = diff.getFeedStock();
+
+        for (CatalogDiff.Update u : diff.getUpdated()) {
+            if (u.isStockChanged()) {
+                // Sets the product's quantity too, from the stock cell, so the two can't disagree
+                inventory.resetStock(u.getCurrent().getId(), u.getIncoming().getQuantity());
+            }
+        }
+        log.info("Reloaded {}: {} in {} ms", file.getFileName(), diff,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    // Writes the diff to the database; false if that failed and the diff must not be applied
+    private boolean save(CatalogDiff diff) {
+        Connection connection;
+        try {
+            connection = DatabaseConnection.getInstance().openConnection();
+        } catch (IllegalStateException e) {
+            log.warn("No database, applying catalog changes in memory only: {}", e.getMessage());
+            return true;
+        } catch (SQLException e) {
+            log.error("Catalog changes not applied, could not open the database: {}", e.getMessage());
+            return false;
+        }
+        try (connection) {
+            loader.writeChanges(connection, diff.rowsToUpsert(), diff.idsToDelete());
+            return true;
+        } catch (SQLException e) {
+            log.error("Catalog changes not applied, database write failed: {}", e.getMessage());
+            return false;
+        }
+    }
+}
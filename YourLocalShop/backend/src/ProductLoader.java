@@ -0,0 +1,266 @@
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Bulk loading of products.json into the catalog and the products table.
+ *
+ * The file is read with a streaming JsonReader, one product at a time, so
+ * the whole document is never held as a tree. Each product is written to
+ * the database as soon as it is parsed. Rows go out with addBatch and
+ * executeBatch and are committed every batchSize rows, so SQLite syncs
+ * once per batch instead of once per row. Progress and throughput are
+ * logged while the load runs.
+ *
+ * The batch size comes from shop.load.batchSize (default 1000).
+ */
+public class ProductLoader {
+    private static final Logger log = LoggerFactory.getLogger(ProductLoader.class);
+
+    static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final String UPSERT_SQL = "INSERT OR REPLACE INTO products (id, name, category, description, price, quantity, available, discount_percentage) VALUES (?,?,?,?,?,?,?,?)";
+    private static final String DELETE_SQL = "DELETE FROM products WHERE id = ?";
+
+    private final Gson gson = new Gson();
+    private final int batchSize;
+
+    public ProductLoader(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    public static ProductLoader fromSystemProperties() {
+        return new ProductLoader(Integer.getInteger("shop.load.batchSize", DEFAULT_BATCH_SIZE));
+    }
+
+    /**
+     * Parses the products in filePath. If connection is not null each
+     * product is also written to the products table. A database failure is
+     * logged and stops the writes, but the file is still read to the end so
+     * the catalog comes up; batches committed before the failure stay.
+     */
+    public List<Product> importJson(String filePath, Connection connection) throws IOException {
+        List<Product> loaded = new ArrayList<>();
+        importJson(filePath, connection, loaded::add);
+        return loaded;
+    }
+
+    /** As above, but hands each product to sink instead of keeping them. Returns the count. */
+    public int importJson(String filePath, Connection connection, Consumer<Product> sink) throws IOException {
+        Progress progress = new Progress();
+        BatchWriter writer = null;
+        if (connection != null) {
+            try {
+                writer = new BatchWriter(connection);
+            } catch (SQLException e) {
+                log.error("Not writing products to the database: {}", e.getMessage());
+            }
+        }
+
+        try (BufferedReader in = Files.newBufferedReader(Path.of(filePath), StandardCharsets.UTF_8);
+             JsonReader json = new JsonReader(in)) {
+            // A literal null means no products, as it did for Gson.fromJson
+            if (json.peek() == JsonToken.NULL) {
+                json.nextNull();
+                return 0;
+            }
+            json.beginArray();
+            while (json.hasNext()) {
+                Product p = gson.fromJson(json, Product.class);
+                p.compact();
+                sink.accept(p);
+                if (writer != null && !writer.add(p)) {
+                    writer = null;
+                }
+                progress.step();
+            }
+            json.endArray();
+        } catch (IllegalStateException e) {
+            // JsonReader reports a wrong token (e.g. an object instead of an array) this way
+            throw new IOException("Malformed product file " + filePath + ": " + e.getMessage(), e);
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        progress.finish();
+        return progress.count;
+    }
+
+    /**
+     * Upserts and deletes products in a single transaction, sending the
+     * statements in batches of batchSize. Nothing is written if any of
+     * them fails.
+     */
+    public void writeChanges(Connection connection, List<Product> upserts, List<String> deletedIds) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement(UPSERT_SQL);
+             PreparedStatement delete = connection.prepareStatement(DELETE_SQL)) {
+            int pending = 0;
+            for (Product p : upserts) {
+                bind(insert, p);
+                insert.addBatch();
+                if (++pending % batchSize == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+            for (String id : deletedIds) {
+                delete.setString(1, id);
+                delete.addBatch();
+                if (++pending % batchSize == 0) {
+                    delete.executeBatch();
+                }
+            }
+            delete.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static void bind(PreparedStatement insert, Product p) throws SQLException {
+        insert.setString(1, p.getId());
+        insert.setString(2, p.getName());
+        insert.setString(3, p.getCategory());
+        insert.setString(4, p.getDescription());
+        insert.setDouble(5, p.getPrice());
+        insert.setInt(6, p.getQuantity());
+        insert.setInt(7, p.isAvailable() ? 1 : 0);
+        insert.setDouble(8, p.getDiscountPercentage());
+    }
+
+    /**
+     * A transaction per batch on the shared connection. This turns
+     * auto-commit off until close(), so it should only run while nothing
+     * else uses the database, as during startup.
+     */
+    private class BatchWriter {
+        private final Connection connection;
+        private final PreparedStatement insert;
+        private final boolean autoCommit;
+        private int pending;
+        private int committed;
+        private boolean failed;
+        private boolean closed;
+
+        BatchWriter(Connection connection) throws SQLException {
+            this.connection = connection;
+            this.autoCommit = connection.getAutoCommit();
+            this.insert = connection.prepareStatement(UPSERT_SQL);
+            connection.setAutoCommit(false);
+        }
+
+        // Returns false once a write has failed; the writer is closed by then
+        boolean add(Product p) {
+            try {
+                bind(insert, p);
+                insert.addBatch();
+                if (++pending >= batchSize) {
+                    flush();
+                }
+                return true;
+            } catch (SQLException e) {
+                fail(e);
+                return false;
+            }
+        }
+
+        private void flush() throws SQLException {
+            if (pending == 0) {
+                return;
+            }
+            long start = System.nanoTime();
+            insert.executeBatch();
+            connection.commit();
+            committed += pending;
+            log.debug("Committed {} products ({} total) in {} ms", pending, committed,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            pending = 0;
+        }
+
+        private void fail(SQLException e) {
+            log.error("Error writing products to the database, stopping: {}", e.getMessage());
+            failed = true;
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackError) {
+                log.warn("Rollback failed: {}", rollbackError.getMessage());
+            }
+            close();
+        }
+
+        // Commits what is left and restores auto-commit
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (!failed) {
+                    flush();
+                }
+            } catch (SQLException e) {
+                fail(e);
+            }
+            try {
+                insert.close();
+                connection.setAutoCommit(autoCommit);
+                log.info("Saved {} products to the database", committed);
+            } catch (SQLException e) {
+                log.warn("Error closing product writer: {}", e.getMessage());
+            }
+        }
+    }
+
+    // Logs how far a load has got, at most every couple of seconds
+    private static class Progress {
+        private final long start = System.nanoTime();
+        private long lastReport = start;
+        private int count;
+
+        void step() {
+            count++;
+            if ((count & 1023) == 0) {
+                long now = System.nanoTime();
+                if (now - lastReport >= PROGRESS_INTERVAL_NANOS) {
+                    lastReport = now;
+                    log.info("Loaded {} products so far ({} per second)", count, rate(now));
+                }
+            }
+        }
+
+        void finish() {
+            long now = System.nanoTime();
+            log.info("Loaded {} products in {} ms ({} per second)", count,
+                    TimeUnit.NANOSECONDS.toMillis(now - start), rate(now));
+        }
+
+        private long rate(long now) {
+            long elapsed = Math.max(1, now - start);
+            return count * TimeUnit.SECONDS.toNanos(1) / elapsed;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * A filtered, sorted, paged request against the product catalog.
+ * Built with fluent setters and run with ProductCatalog.query().
+ *
+ * Paging uses an opaque cursor holding the sort key and id of the last
+ * product returned, so pages stay stable while the catalog changes.
+ */
+public class ProductQuery {
+    public static final int DEFAULT_LIMIT = 20;
+    public static final int MAX_LIMIT = 200;
+
+    public enum SortField {
+        // Price sorts and filters on the discounted (effective) price
+        PRICE, NAME, DISCOUNT, STOCK;
+
+        // Sort key of the numeric fields; NAME sorts by name, ignoring case. Ties go by id.
+        double numericKeyOf(Product p) {
+            return switch (this) {
+                case PRICE -> p.getDiscountedPrice();
+                case DISCOUNT -> p.getDiscountPercentage();
+                case STOCK -> p.getQuantity();
+                case NAME -> throw new IllegalArgumentException("Not numeric: " + this);
+            };
+        }
+
+        String keyOf(Product p) {
+            return switch (this) {
+                case PRICE -> Double.toString(p.getDiscountedPrice());
+                case NAME -> p.getName();
+                case DISCOUNT -> Double.toString(p.getDiscountPercentage());
+                case STOCK -> Integer.toString(p.getQuantity());
+            };
+        }
+
+        public static SortField parse(String value) {
+            try {
+                return SortField.valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown sort field: " + value);
+            }
+        }
+    }
+
+    /** One page of results. */
+    public static class Page {
+        private final List<Product> items;
+        private final int total;
+        private final String nextCursor;
+
+        Page(List<Product> items, int total, String nextCursor) {
+            this.items = items;
+            this.total = total;
+            this.nextCursor = nextCursor;
+        }
+
+        public List<Product> getItems() { return items; }
+        public int getTotal() { return total; }
+        public String getNextCursor() { return nextCursor; }
+    }
+
+    private String category;
+    private Double minPrice;
+    private Double maxPrice;
+    private boolean inStockOnly;
+    private boolean discountedOnly;
+    private SortField sort = SortField.NAME;
+    private boolean descending;
+    private int limit = DEFAULT_LIMIT;
+    private String cursor;
+
+    public ProductQuery setCategory(String category) {
+        this.category = category;
+        return this;
+    }
+
+    public ProductQuery setPriceRange(Double minPrice, Double maxPrice) {
+        if (minPrice != null && maxPrice != null && minPrice > maxPrice) {
+            throw new IllegalArgumentException("minPrice cannot be greater than maxPrice.");
+        }
+        this.minPrice = minPrice;
+        this.maxPrice = maxPrice;
+        return this;
+    }
+
+    public ProductQuery setInStockOnly(boolean inStockOnly) {
+        this.inStockOnly = inStockOnly;
+        return this;
+    }
+
+    public ProductQuery setDiscountedOnly(boolean discountedOnly) {
+        this.discountedOnly = discountedOnly;
+        return this;
+    }
+
+    public ProductQuery setSort(SortField sort, boolean descending) {
+        this.sort = sort;
+        this.descending = descending;
+        return this;
+    }
+
+    public ProductQuery setLimit(int limit) {
+        if (limit < 1) throw new IllegalArgumentException("limit must be at least 1.");
+        this.limit = Math.min(limit, MAX_LIMIT);
+        return this;
+    }
+
+    public ProductQuery setCursor(String cursor) {
+        this.cursor = cursor;
+        return this;
+    }
+
+    // True if the product passes every filter except the category
+    boolean matches(Product p) {
+        if (inStockOnly && p.getQuantity() <= 0) return false;
+        if (discountedOnly && p.getDiscountPercentage() <= 0) return false;
+        if (minPrice != null && p.getDiscountedPrice() < minPrice) return false;
+        if (maxPrice != null && p.getDiscountedPrice() > maxPrice) return false;
+        return true;
+    }
+
+    // False if every product in range matches, so the total is just the range size
+    boolean hasResidualFilters(boolean priceRangeApplied) {
+        boolean priceFilter = !priceRangeApplied && (minPrice != null || maxPrice != null);
+        return inStockOnly || discountedOnly || priceFilter;
+    }
+
+    // Cursor format (before base64): sort|desc|keyLength|key id, key and id side by side.
+    // Names and admin-entered ids may contain '|', so only the fixed fields are split on it.
+    String encodeCursor(Product last) {
+        String key = sort.keyOf(last);
+        String raw = sort + "|" + (descending ? 1 : 0) + "|" + key.length() + "|" + key + last.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Returns {id, key} of the last product on the previous page, or null for the first page
+    String[] decodeCursor() {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor.");
+        }
+        String[] parts = raw.split("\\|", 4);
+        if (parts.length != 4 || !parts[0].equals(sort.name()) || !parts[1].equals(descending ? "1" : "0")) {
+            throw new IllegalArgumentException("Cursor does not match the requested sort order.");
+        }
+        int keyLength;
+        try {
+            keyLength = Integer.parseInt(parts[2]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor.");
+        }
+        if (keyLength < 0 || keyLength > parts[3].length()) {
+            throw new IllegalArgumentException("Invalid cursor.");
+        }
+        return new String[] { parts[3].substring(keyLength), parts[3].substring(0, keyLength) };
+    }
+
+    // Getters
+    public String getCategory() { return category; }
+    public Double getMinPrice() { return minPrice; }
+    public Double getMaxPrice() { return maxPrice; }
+    public boolean isInStockOnly() { return inStockOnly; }
+    public boolean isDiscountedOnly() { return discountedOnly; }
+    public SortField getSort() { return sort; }
+    public boolean isDescending() { return descending; }
+    public int getLimit() { return limit; }
+}
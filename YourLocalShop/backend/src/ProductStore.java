@@ -0,0 +1,308 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Product queries answered straight from the products table, for the
+ * bounded catalog mode where only a cache of products is kept in memory.
+ *
+ * Lookups go by primary key (ignoring case, like the in-memory catalog)
+ * and listings are paged in SQL with the same sort orders, filters and
+ * cursors as CatalogIndex, using keyset paging so a deep page costs the
+ * same as the first. ensureIndexes() adds the indexes these queries rely
+ * on. Full-text search and suggestions fall back to LIKE scans, which are
+ * slower than the in-memory indexes but need no memory.
+ *
+ * Errors are thrown as IllegalStateException so callers on the request
+ * path can let them turn into a 500.
+ */
+public class ProductStore {
+    // Same value as Product.getDiscountedPrice()
+    private static final String EFFECTIVE_PRICE =
+            "(CASE WHEN discount_percentage > 0 THEN price * (1 - discount_percentage / 100.0) ELSE price END)";
+    private static final String CATEGORY_KEY = "LOWER(TRIM(category))";
+    private static final String COLUMNS = "id, name, category, description, price, quantity, discount_percentage";
+
+    private final DatabaseConnection db;
+
+    public ProductStore(DatabaseConnection db) {
+        this.db = db;
+    }
+
+    private Connection connection() {
+        return db.getConnection();
+    }
+
+    public void ensureIndexes() {
+        try (Statement stmt = connection().createStatement()) {
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_products_id_nocase ON products(id COLLATE NOCASE)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_products_category ON products(" + CATEGORY_KEY + ")");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_products_name ON products(name COLLATE NOCASE, id)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_products_price ON products(" + EFFECTIVE_PRICE + ", id)");
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error creating product indexes: " + e.getMessage(), e);
+        }
+    }
+
+    // Maps the current row; a database from before discounts existed reads as no discount
+    static Product fromRow(ResultSet rs) throws SQLException {
+        double discount = 0.0;
+        try {
+            discount = rs.getDouble("discount_percentage");
+        } catch (SQLException e) {
+            // Column doesn't exist yet, use default
+        }
+        return new Product(
+                rs.getString("id"),
+                rs.getString("name"),
+                rs.getString("category"),
+                rs.getString("description"),
+                rs.getDouble("price"),
+                rs.getInt("quantity"),
+                discount
+        );
+    }
+
+    public int count() {
+        try (Statement stmt = connection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM products")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error counting products: " + e.getMessage(), e);
+        }
+    }
+
+    public Product findById(String id) {
+        String sql = "SELECT " + COLUMNS + " FROM products WHERE id = ? COLLATE NOCASE LIMIT 1";
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            ps.setString(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? fromRow(rs) : null;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error loading product " + id + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Every product; for console reports only, as it reads the whole table into memory
+    public List<Product> findAll() {
+        List<Product> products = new ArrayList<>();
+        try (Statement stmt = connection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT " + COLUMNS + " FROM products ORDER BY id")) {
+            while (rs.next()) {
+                products.add(fromRow(rs));
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error loading products: " + e.getMessage(), e);
+        }
+        return products;
+    }
+
+    public List<Product> findByCategory(String category) {
+        List<Product> products = new ArrayList<>();
+        if (category == null) {
+            return products;
+        }
+        String sql = "SELECT " + COLUMNS + " FROM products WHERE " + CATEGORY_KEY + " = ? ORDER BY id";
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            ps.setString(1, CatalogIndex.normalize(category));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    products.add(fromRow(rs));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error loading category " + category + ": " + e.getMessage(), e);
+        }
+        return products;
+    }
+
+    public ProductQuery.Page page(ProductQuery query) {
+        ProductQuery.SortField sort = query.getSort();
+        String sortKey = sortExpression(sort);
+        String direction = query.isDescending() ? "DESC" : "ASC";
+
+        Filter filter = new Filter();
+        filter.where(query);
+
+        // Total ignores the cursor, as it does in memory
+        int total;
+        try (PreparedStatement ps = connection().prepareStatement("SELECT COUNT(*) FROM products" + filter.sql())) {
+            filter.bind(ps, 1);
+            try (ResultSet rs = ps.executeQuery()) {
+                total = rs.next() ? rs.getInt(1) : 0;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error counting products: " + e.getMessage(), e);
+        }
+
+        String[] position = query.decodeCursor();
+        if (position != null) {
+            String op = query.isDescending() ? "<" : ">";
+            filter.add("(" + sortKey + " " + op + " ? OR (" + sortKey + " = ? AND id " + op + " ?))",
+                    sortValue(sort, position[1]), sortValue(sort, position[1]), position[0]);
+        }
+
+        // One extra row tells whether there is a next page
+        String sql = "SELECT " + COLUMNS + " FROM products" + filter.sql()
+                + " ORDER BY " + sortKey + " " + direction + ", id " + direction + " LIMIT ?";
+        List<Product> items = new ArrayList<>(query.getLimit() + 1);
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            int next = filter.bind(ps, 1);
+            ps.setInt(next, query.getLimit() + 1);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    items.add(fromRow(rs));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error listing products: " + e.getMessage(), e);
+        }
+
+        boolean more = items.size() > query.getLimit();
+        if (more) {
+            items.remove(items.size() - 1);
+        }
+        String nextCursor = more ? query.encodeCursor(items.get(items.size() - 1)) : null;
+        return new ProductQuery.Page(items, total, nextCursor);
+    }
+
+    private static String sortExpression(ProductQuery.SortField sort) {
+        return switch (sort) {
+            case PRICE -> EFFECTIVE_PRICE;
+            case NAME -> "name COLLATE NOCASE";
+            case DISCOUNT -> "discount_percentage";
+            case STOCK -> "quantity";
+        };
+    }
+
+    // The cursor's sort key as the type the column compares with
+    private static Object sortValue(ProductQuery.SortField sort, String key) {
+        return switch (sort) {
+            case PRICE, DISCOUNT -> Double.parseDouble(key);
+            case NAME -> key;
+            case STOCK -> Integer.parseInt(key);
+        };
+    }
+
+    // Category names with counts, grouped the way CategoryIndex groups them
+    public List<CategoryIndex.Facet> facets() {
+        String sql = "SELECT MIN(category) AS name, COUNT(*) AS n FROM products GROUP BY " + CATEGORY_KEY
+                + " ORDER BY name COLLATE NOCASE";
+        List<CategoryIndex.Facet> facets = new ArrayList<>();
+        try (Statement stmt = connection().createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                String name = rs.getString("name");
+                facets.add(new CategoryIndex.Facet(name == null ? "" : name, rs.getInt("n")));
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error loading categories: " + e.getMessage(), e);
+        }
+        return facets;
+    }
+
+    /** Products containing every query term in their name, category or description, by name. */
+    public SearchIndex.Result search(String query, int limit) {
+        List<String> terms = SearchIndex.tokenize(query);
+        if (terms.isEmpty()) {
+            throw new IllegalArgumentException("Query has no searchable terms.");
+        }
+        Filter filter = new Filter();
+        for (String term : terms) {
+            // Terms are letters and digits only, so they need no LIKE escaping
+            String pattern = "%" + term + "%";
+            filter.add("(name LIKE ? OR category LIKE ? OR description LIKE ?)", pattern, pattern, pattern);
+        }
+
+        int total;
+        List<Product> items = new ArrayList<>();
+        try (PreparedStatement count = connection().prepareStatement("SELECT COUNT(*) FROM products" + filter.sql());
+             PreparedStatement select = connection().prepareStatement("SELECT " + COLUMNS + " FROM products"
+                     + filter.sql() + " ORDER BY name COLLATE NOCASE, id LIMIT ?")) {
+            filter.bind(count, 1);
+            try (ResultSet rs = count.executeQuery()) {
+                total = rs.next() ? rs.getInt(1) : 0;
+            }
+            select.setInt(filter.bind(select, 1), limit);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    items.add(fromRow(rs));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error searching products: " + e.getMessage(), e);
+        }
+        return new SearchIndex.Result(items, total);
+    }
+
+    /** Products with a word in their name starting with prefix, best first. */
+    public List<SuggestIndex.Suggestion> suggest(String prefix, int limit, SuggestIndex.Rank rank) {
+        String escaped = prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+        String order = rank == SuggestIndex.Rank.STOCK ? "quantity" : "sold";
+        String sql = "SELECT p.id, p.name, p.quantity,"
+                + " COALESCE((SELECT SUM(oi.quantity) FROM order_items oi WHERE oi.product_id = p.id), 0) AS sold"
+                + " FROM products p WHERE p.name LIKE ? ESCAPE '\\' OR p.name LIKE ? ESCAPE '\\'"
+                + " ORDER BY " + order + " DESC, p.id LIMIT ?";
+        List<SuggestIndex.Suggestion> results = new ArrayList<>();
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            ps.setString(1, escaped + "%");
+            ps.setString(2, "% " + escaped + "%");
+            ps.setInt(3, Math.min(limit, SuggestIndex.MAX_K));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    results.add(new SuggestIndex.Suggestion(rs.getString("id"), rs.getString("name"),
+                            rs.getInt("sold"), rs.getInt("quantity")));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error loading suggestions: " + e.getMessage(), e);
+        }
+        return results;
+    }
+
+    // A WHERE clause built up from conditions with their parameters
+    private static class Filter {
+        private final StringBuilder sql = new StringBuilder();
+        private final List<Object> params = new ArrayList<>();
+
+        void add(String condition, Object... values) {
+            sql.append(sql.length() == 0 ? " WHERE " : " AND ").append(condition);
+            params.addAll(List.of(values));
+        }
+
+        void where(ProductQuery query) {
+            if (query.getCategory() != null) {
+                add(CATEGORY_KEY + " = ?", CatalogIndex.normalize(query.getCategory()));
+            }
+            if (query.getMinPrice() != null) {
+                add(EFFECTIVE_PRICE + " >= ?", query.getMinPrice());
+            }
+            if (query.getMaxPrice() != null) {
+                add(EFFECTIVE_PRICE + " <= ?", query.getMaxPrice());
+            }
+            if (query.isInStockOnly()) {
+                add("quantity > 0");
+            }
+            if (query.isDiscountedOnly()) {
+                add("discount_percentage > 0");
+            }
+        }
+
+        String sql() {
+            return sql.toString();
+        }
+
+        // Binds the parameters from index first on; returns the next free index
+        int bind(PreparedStatement ps, int first) throws SQLException {
+            int i = first;
+            for (Object value : params) {
+                ps.setObject(i++, value);
+            }
+            return i;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Saves product stock, price and discount changes to the database in the
+ * background instead of with one auto-committed UPDATE per change.
+ *
+ * Product's setters only mark the product dirty. A product changed again
+ * before it is written is still one pending row, so a burst of sales of
+ * the same item costs one UPDATE. A flusher thread writes the pending rows
+ * in batched transactions, on its own connection, every flush interval or
+ * as soon as a batch's worth is waiting. Each row carries the product's
+ * values at the time it is written.
+ *
+ * The number of pending products is bounded: past the limit, the thread
+ * that marks one more waits for a flush to make room (up to a few seconds,
+ * so a database outage slows requests down rather than hanging them). A
+ * failed batch is rolled back and its products stay pending for the next
+ * attempt. shutdown() writes whatever is left.
+ *
+ * Configured through system properties:
+ *   shop.writeBehind.flushMillis  longest a change waits to be written (default 200)
+ *   shop.writeBehind.batchSize    rows per transaction, and the size that triggers a flush (default 500)
+ *   shop.writeBehind.maxPending   pending products before writers wait (default 10000)
+ */
+public class ProductWriteBehind {
+    private static final Logger log = LoggerFactory.getLogger(ProductWriteBehind.class);
+
+    private static ProductWriteBehind instance;
+
+    private static final String UPDATE_SQL =
+            "UPDATE products SET quantity = ?, available = ?, price = ?, discount_percentage = ? WHERE id = ?";
+    // Longest a writer waits for room before going ahead anyway
+    private static final long MAX_WAIT_MILLIS = 5000;
+
+    private final long flushMillis;
+    private final int batchSize;
+    private final int maxPending;
+
+    // Dirty products by normalized id
+    private final Map<String, Product> dirty = new ConcurrentHashMap<>();
+    // Taken out of dirty for the batch being written, until it commits; written only by the flusher
+    private final Map<String, Product> inFlight = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushNeeded = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    // Used only by the flushing thread
+    private Connection connection;
+    private boolean noDatabase;
+
+    private final AtomicLong marked = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+
+    private ProductWriteBehind(long flushMillis, int batchSize, int maxPending) {
+        this.flushMillis = flushMillis;
+        this.batchSize = batchSize;
+        this.maxPending = maxPending;
+
+        this.flusher = new Thread(this::flushLoop, "product-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public static synchronized ProductWriteBehind getInstance() {
+        if (instance == null) {
+            long flushMillis = Math.max(1, Long.getLong("shop.writeBehind.flushMillis", 200));
+            int batchSize = Math.max(1, Integer.getInteger("shop.writeBehind.batchSize", 500));
+            int maxPending = Math.max(batchSize, Integer.getInteger("shop.writeBehind.maxPending", 10_000));
+            instance = new ProductWriteBehind(flushMillis, batchSize, maxPending);
+        }
+        return instance;
+    }
+
+    // Queues the product's stock, price and discount to be saved
+    public void markDirty(Product p) {
+        marked.incrementAndGet();
+        String key = ProductCatalog.normalizeId(p.getId());
+        if (dirty.put(key, p) != null) {
+            coalesced.incrementAndGet();
+            return;
+        }
+
+        int pending = dirty.size();
+        if (pending >= batchSize) {
+            signal(flushNeeded);
+        }
+        if (pending > maxPending && running && Thread.currentThread() != flusher) {
+            waitForRoom();
+        }
+    }
+
+    // The product if it has changes not yet committed, so a reload from the table doesn't miss them
+    public Product getPending(String id) {
+        String key = ProductCatalog.normalizeId(id);
+        Product p = dirty.get(key);
+        return p != null ? p : inFlight.get(key);
+    }
+
+    private void waitForRoom() {
+        waits.incrementAndGet();
+        long remaining = TimeUnit.MILLISECONDS.toNanos(MAX_WAIT_MILLIS);
+        lock.lock();
+        try {
+            while (dirty.size() > maxPending && running && remaining > 0) {
+                flushNeeded.signal();
+                remaining = drained.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+        if (remaining <= 0) {
+            log.warn("Product writes are falling behind: {} products waiting to be saved", dirty.size());
+        }
+    }
+
+    private void signal(Condition condition) {
+        lock.lock();
+        try {
+            condition.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flushLoop() {
+        while (running) {
+            lock.lock();
+            try {
+                if (dirty.size() < batchSize) {
+                    flushNeeded.await(flushMillis, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                // Shutting down; the final flush below still runs
+            } finally {
+                lock.unlock();
+            }
+            flush();
+        }
+        flush();
+        closeConnection();
+    }
+
+    // Writes everything pending, a batch per transaction; stops at the first failed batch
+    private synchronized void flush() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        List<Product> batch = new ArrayList<>(Math.min(batchSize, dirty.size()));
+        Iterator<Map.Entry<String, Product>> it = dirty.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Product> e = it.next();
+            // In flight before it leaves dirty, so getPending() finds it in one or the other
+            inFlight.put(e.getKey(), e.getValue());
+            // Only if still the same entry; another instance marked since stays pending
+            if (dirty.remove(e.getKey(), e.getValue())) {
+                batch.add(e.getValue());
+            } else {
+                inFlight.remove(e.getKey(), e.getValue());
+            }
+            if (batch.size() == batchSize) {
+                if (!write(batch)) {
+                    return;
+                }
+                batch.clear();
+                signal(drained);
+            }
+        }
+        if (!batch.isEmpty()) {
+            write(batch);
+            signal(drained);
+        }
+    }
+
+    // Writes one batch in a transaction; false if it failed and was put back
+    private boolean write(List<Product> batch) {
+        if (batch.isEmpty()) {
+            return true;
+        }
+        Connection c = connection();
+        if (c == null) {
+            if (noDatabase) {
+                // Nothing to save to; changes live in memory only, as before
+                landed(batch);
+                return true;
+            }
+            requeue(batch);
+            return false;
+        }
+
+        try (PreparedStatement ps = c.prepareStatement(UPDATE_SQL)) {
+            for (Product p : batch) {
+                ps.setInt(1, p.getQuantity());
+                ps.setInt(2, p.isAvailable() ? 1 : 0);
+                ps.setDouble(3, p.getPrice());
+                ps.setDouble(4, p.getDiscountPercentage());
+                ps.setString(5, p.getId());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            c.commit();
+            landed(batch);
+            written.addAndGet(batch.size());
+            flushes.incrementAndGet();
+            return true;
+        } catch (SQLException e) {
+            failures.incrementAndGet();
+            log.error("Saving {} products failed, will retry: {}", batch.size(), e.getMessage());
+            try {
+                c.rollback();
+            } catch (SQLException rollbackFailed) {
+                // Start over on a fresh connection
+                closeConnection();
+            }
+            requeue(batch);
+            return false;
+        }
+    }
+
+    // Puts products back unless they were marked again since (the newer entry covers them)
+    private void requeue(List<Product> batch) {
+        for (Product p : batch) {
+            dirty.putIfAbsent(ProductCatalog.normalizeId(p.getId()), p);
+        }
+        landed(batch);
+    }
+
+    // The batch is committed or back in dirty; the table row or the pending entry is current now
+    private void landed(List<Product> batch) {
+        for (Product p : batch) {
+            inFlight.remove(ProductCatalog.normalizeId(p.getId()), p);
+        }
+    }
+
+    private Connection connection() {
+        if (connection == null && !noDatabase) {
+            try {
+                connection = DatabaseConnection.getInstance().openConnection();
+                connection.setAutoCommit(false);
+            } catch (IllegalStateException e) {
+                noDatabase = true;
+                log.warn("No database, product changes will not be saved: {}", e.getMessage());
+            } catch (SQLException e) {
+                log.error("Could not open a connection for product writes: {}", e.getMessage());
+                closeConnection();
+            }
+        }
+        return connection;
+    }
+
+    private void closeConnection() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.warn("Error closing product write connection: {}", e.getMessage());
+            }
+            connection = null;
+        }
+    }
+
+    // Stops the flusher after it has written everything still pending
+    public void shutdown() {
+        running = false;
+        signal(flushNeeded);
+        try {
+            flusher.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!dirty.isEmpty()) {
+            log.warn("{} product changes were not saved at shutdown", dirty.size());
+        }
+    }
+
+    // Metrics
+    public int getPendingCount() { return dirty.size(); }
+    public long getMarkedCount() { return marked.get(); }
+    public long getCoalescedCount() { return coalesced.get(); }
+    public long getWrittenCount() { return written.get(); }
+    public long getFlushCount() { return flushes.get(); }
+    public long getFailureCount() { return failures.get(); }
+    public long getWaitCount() { return waits.get(); }
+
+    public void writeTo(PrometheusText out) {
+        out.gauge("shop_write_behind_pending", "Products with changes waiting to be saved.", getPendingCount());
+        out.counter("shop_write_behind_marked_total", "Product stock, price or discount changes queued.", getMarkedCount());
+        out.counter("shop_write_behind_coalesced_total", "Changes folded into a product already pending.", getCoalescedCount());
+        out.counter("shop_write_behind_rows_total", "Product rows written.", getWrittenCount());
+        out.counter("shop_write_behind_batches_total", "Batches committed.", getFlushCount());
+        out.counter("shop_write_behind_failures_total", "Batches rolled back and retried.", getFailureCount());
+        out.counter("shop_write_behind_waits_total", "Times a writer waited for pending changes to drain.", getWaitCount());
+    }
+}
@@ -0,0 +1,77 @@
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Builds a response in the Prometheus text exposition format (version 0.0.4).
+ * HELP and TYPE lines are written once per metric name, the first time a
+ * sample for it is added.
+ */
+public class PrometheusText {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final StringBuilder out = new StringBuilder(4096);
+    private final Set<String> described = new HashSet<>();
+
+    public PrometheusText counter(String name, String help, double value, String... labels) {
+        return sample(name, "counter", help, value, labels);
+    }
+
+    public PrometheusText gauge(String name, String help, double value, String... labels) {
+        return sample(name, "gauge", help, value, labels);
+    }
+
+    // Declares a metric name without writing a sample (e.g. a summary whose lines are added with line())
+    public PrometheusText describe(String name, String type, String help) {
+        if (described.add(name)) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        }
+        return this;
+    }
+
+    private PrometheusText sample(String name, String type, String help, double value, String... labels) {
+        describe(name, type, help);
+        return line(name, value, labels);
+    }
+
+    // labels are name/value pairs: "route", "/api/cart", "method", "GET"
+    public PrometheusText line(String name, double value, String... labels) {
+        out.append(name);
+        if (labels.length > 0) {
+            out.append('{');
+            for (int i = 0; i + 1 < labels.length; i += 2) {
+                if (i > 0) out.append(',');
+                out.append(labels[i]).append("=\"");
+                escape(labels[i + 1]);
+                out.append('"');
+            }
+            out.append('}');
+        }
+        out.append(' ').append(format(value)).append('\n');
+        return this;
+    }
+
+    private void escape(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> out.append("\\\\");
+                case '"' -> out.append("\\\"");
+                case '\n' -> out.append("\\n");
+                default -> out.append(c);
+            }
+        }
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value)) return "NaN";
+        if (Double.isInfinite(value)) return value > 0 ? "+Inf" : "-Inf";
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) return Long.toString((long) value);
+        return Double.toString(value);
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+}
@@ -0,0 +1,140 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs web requests off the HttpServer dispatcher thread.
+ *
+ * In VIRTUAL_THREADS mode each admitted request gets its own virtual thread.
+ * At most maxConcurrent requests run at once, up to queueCapacity more wait
+ * for a slot, and anything beyond that is rejected straight away (503).
+ * DISPATCHER mode keeps the old behaviour of running on the dispatcher thread.
+ *
+ * Configured through system properties:
+ *   shop.executor.mode          VIRTUAL_THREADS (default) or DISPATCHER
+ *   shop.executor.maxConcurrent default 64
+ *   shop.executor.queueCapacity default 256
+ */
+public class RequestExecutor {
+
+    public enum Mode { DISPATCHER, VIRTUAL_THREADS }
+
+    private static final int DEFAULT_MAX_CONCURRENT = 64;
+    private static final int DEFAULT_QUEUE_CAPACITY = 256;
+    private static final Logger log = LoggerFactory.getLogger(RequestExecutor.class);
+
+    private final Mode mode;
+    private final int maxConcurrent;
+    private final int queueCapacity;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+
+    // Counters
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public RequestExecutor(Mode mode, int maxConcurrent, int queueCapacity) {
+        if (maxConcurrent < 1) throw new IllegalArgumentException("maxConcurrent must be at least 1.");
+        if (queueCapacity < 0) throw new IllegalArgumentException("queueCapacity cannot be negative.");
+
+        this.mode = mode;
+        this.maxConcurrent = maxConcurrent;
+        this.queueCapacity = queueCapacity;
+        this.permits = new Semaphore(maxConcurrent);
+        this.executor = mode == Mode.VIRTUAL_THREADS ? Executors.newVirtualThreadPerTaskExecutor() : null;
+    }
+
+    public static RequestExecutor fromSystemProperties() {
+        Mode mode = Mode.valueOf(System.getProperty("shop.executor.mode", Mode.VIRTUAL_THREADS.name()).trim().toUpperCase());
+        int maxConcurrent = Integer.getInteger("shop.executor.maxConcurrent", DEFAULT_MAX_CONCURRENT);
+        int queueCapacity = Integer.getInteger("shop.executor.queueCapacity", DEFAULT_QUEUE_CAPACITY);
+        return new RequestExecutor(mode, maxConcurrent, queueCapacity);
+    }
+
+    /**
+     * Wraps a handler so it runs under this executor's limits.
+     * rejectHandler is called on the dispatcher thread when the queue is full.
+     */
+    public HttpHandler wrap(HttpHandler handler, HttpHandler rejectHandler) {
+        if (mode == Mode.DISPATCHER) {
+            return handler;
+        }
+
+        return exchange -> {
+            // Fast path: a slot is free, run immediately
+            if (permits.tryAcquire()) {
+                executor.execute(() -> runAdmitted(handler, exchange));
+                return;
+            }
+
+            // Otherwise wait in the admission queue if there is room
+            if (queued.incrementAndGet() > queueCapacity) {
+                queued.decrementAndGet();
+                rejected.incrementAndGet();
+                rejectHandler.handle(exchange);
+                return;
+            }
+
+            executor.execute(() -> {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    queued.decrementAndGet();
+                    exchange.close();
+                    return;
+                }
+                queued.decrementAndGet();
+                runAdmitted(handler, exchange);
+            });
+        };
+    }
+
+    // Caller must already hold a permit
+    private void runAdmitted(HttpHandler handler, HttpExchange exchange) {
+        active.incrementAndGet();
+        try {
+            handler.handle(exchange);
+        } catch (IOException | RuntimeException e) {
+            log.error("Error handling request: {}", e.getMessage(), e);
+            exchange.close();
+        } finally {
+            active.decrementAndGet();
+            completed.incrementAndGet();
+            permits.release();
+        }
+    }
+
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    // Getters
+    public Mode getMode() { return mode; }
+    public int getMaxConcurrent() { return maxConcurrent; }
+    public int getQueueCapacity() { return queueCapacity; }
+    public int getQueueDepth() { return queued.get(); }
+    public int getActiveCount() { return active.get(); }
+    public long getCompletedCount() { return completed.get(); }
+    public long getRejectedCount() { return rejected.get(); }
+
+    @Override
+    public String toString() {
+        if (mode == Mode.DISPATCHER) {
+            return "dispatcher thread";
+        }
+        return String.format("virtual threads (max %d concurrent, queue %d)", maxConcurrent, queueCapacity);
+    }
+}
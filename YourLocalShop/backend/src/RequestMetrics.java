@@ -0,0 +1,196 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request counts, errors and latency per route, method and status code.
+ *
+ * wrap() times every request passing through a handler. The route label
+ * is the template the Router matched (e.g. /api/products/{id}), so ids
+ * never end up in label values.
+ *
+ * Recording is lock-free: counters are LongAdders and latencies go into a
+ * fixed set of log-linear buckets (about 12% wide) held in an
+ * AtomicLongArray. Quantiles are worked out from the buckets when the
+ * metrics are read.
+ */
+public class RequestMetrics {
+    private static final String UNMATCHED = "unmatched";
+    // Methods reported by name; anything else the client sends is counted as OTHER,
+    // so made-up methods can't add series without limit
+    private static final Set<String> KNOWN_METHODS = Set.of("GET", "HEAD", "POST", "PUT", "PATCH", "DELETE", "OPTIONS");
+    private static final String OTHER_METHOD = "OTHER";
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private final Map<String, Series> series = new ConcurrentHashMap<>();
+    private final LongAdder inFlight = new LongAdder();
+
+    /**
+     * Latency histogram in microseconds. Values below 8 get a bucket each;
+     * above that every power of two is split into 8 buckets.
+     */
+    static class Histogram {
+        private static final int SUB_BUCKETS = 8;
+        private static final int MAX_EXPONENT = 40; // 2^40 us, about 12 days
+        private static final int BUCKETS = (MAX_EXPONENT - 2) * SUB_BUCKETS + SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+        static int bucketOf(long micros) {
+            if (micros < SUB_BUCKETS) {
+                return (int) Math.max(0, micros);
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            if (exponent >= MAX_EXPONENT) {
+                return BUCKETS - 1;
+            }
+            int sub = (int) (micros >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+            return (exponent - 2) * SUB_BUCKETS + sub;
+        }
+
+        // Largest value that falls in the bucket
+        static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + 2;
+            int sub = bucket % SUB_BUCKETS;
+            long lower = (long) (SUB_BUCKETS + sub) << (exponent - 3);
+            return lower + (1L << (exponent - 3)) - 1;
+        }
+
+        void record(long micros) {
+            counts.incrementAndGet(bucketOf(micros));
+        }
+
+        // Values for each quantile in microseconds, from one pass over the buckets
+        long[] quantiles(double[] qs) {
+            long[] snapshot = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+                total += snapshot[i];
+            }
+
+            long[] result = new long[qs.length];
+            if (total == 0) {
+                return result;
+            }
+            long seen = 0;
+            int q = 0;
+            for (int i = 0; i < BUCKETS && q < qs.length; i++) {
+                seen += snapshot[i];
+                while (q < qs.length && seen >= Math.ceil(qs[q] * total)) {
+                    result[q++] = upperBound(i);
+                }
+            }
+            return result;
+        }
+    }
+
+    // Everything recorded for one route + method + status
+    static class Series {
+        final String route;
+        final String method;
+        final int status;
+        final LongAdder count = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder totalMicros = new LongAdder();
+        final Histogram latency = new Histogram();
+
+        Series(String route, String method, int status) {
+            this.route = route;
+            this.method = method;
+            this.status = status;
+        }
+    }
+
+    public HttpHandler wrap(HttpHandler handler) {
+        return exchange -> {
+            long start = System.nanoTime();
+            inFlight.increment();
+            boolean failed = true;
+            try {
+                handler.handle(exchange);
+                failed = false;
+            } finally {
+                inFlight.decrement();
+                record(exchange, (System.nanoTime() - start) / 1000, failed);
+            }
+        };
+    }
+
+    private void record(HttpExchange exchange, long micros, boolean failed) {
+        String route = Router.takeMatchedRoute();
+        String method = KNOWN_METHODS.contains(exchange.getRequestMethod()) ? exchange.getRequestMethod() : OTHER_METHOD;
+        int status = exchange.getResponseCode();
+        if (status == -1) {
+            status = failed ? 500 : 0;
+        }
+
+        String routeLabel = route != null ? route : UNMATCHED;
+        String key = routeLabel + ' ' + method + ' ' + status;
+        Series s = series.get(key);
+        if (s == null) {
+            int finalStatus = status;
+            s = series.computeIfAbsent(key, k -> new Series(routeLabel, method, finalStatus));
+        }
+
+        s.count.increment();
+        s.totalMicros.add(micros);
+        s.latency.record(micros);
+        if (failed || status >= 500) {
+            s.errors.increment();
+        }
+    }
+
+    public long getInFlight() {
+        return inFlight.sum();
+    }
+
+    public long getRequestCount() {
+        long total = 0;
+        for (Series s : series.values()) total += s.count.sum();
+        return total;
+    }
+
+    public void writeTo(PrometheusText out) {
+        List<Series> sorted = new ArrayList<>(series.values());
+        sorted.sort(Comparator.comparing((Series s) -> s.route).thenComparing(s -> s.method).thenComparingInt(s -> s.status));
+
+        out.gauge("shop_http_requests_in_flight", "Requests currently being handled.", getInFlight());
+
+        for (Series s : sorted) {
+            out.counter("shop_http_requests_total", "Requests handled, by route, method and status.",
+                    s.count.sum(), labels(s));
+        }
+        for (Series s : sorted) {
+            out.counter("shop_http_request_errors_total", "Requests that failed with an exception or a 5xx status.",
+                    s.errors.sum(), labels(s));
+        }
+
+        String name = "shop_http_request_duration_seconds";
+        out.describe(name, "summary", "Request latency, by route, method and status.");
+        for (Series s : sorted) {
+            long[] values = s.latency.quantiles(QUANTILES);
+            for (int i = 0; i < QUANTILES.length; i++) {
+                out.line(name, values[i] / 1e6, "route", s.route, "method", s.method,
+                        "status", Integer.toString(s.status), "quantile", Double.toString(QUANTILES[i]));
+            }
+            out.line(name + "_sum", s.totalMicros.sum() / 1e6, labels(s));
+            out.line(name + "_count", s.count.sum(), labels(s));
+        }
+    }
+
+    private static String[] labels(Series s) {
+        return new String[] { "route", s.route, "method", s.method, "status", Integer.toString(s.status) };
+    }
+}
@@ -0,0 +1,240 @@
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Releases the stock held by cart items whose reservation has run out,
+ * whether or not anyone looks at the cart again.
+ *
+ * Every reserved item is scheduled on a hashed timing wheel: a ring of
+ * buckets, one per tick, each a linked list of timeouts. Scheduling or
+ * cancelling is a constant-time link or unlink under one short lock. A
+ * daemon thread advances the wheel once per tick and takes the due
+ * timeouts out of the current bucket; timeouts more than a full turn away
+ * sit out the turns in between. The due items are then expired a cart at
+ * a time, each cart locked once for the whole batch.
+ *
+ * Tick length is set with shop.reservation.tickMillis (default 1000).
+ */
+public class ReservationExpiry {
+    private static final Logger log = LoggerFactory.getLogger(ReservationExpiry.class);
+
+    private static final long DEFAULT_TICK_MILLIS = 1000;
+    // Buckets in the wheel; a power of two. At one-second ticks a turn is about 17 minutes,
+    // longer than a reservation, so most timeouts are due on their first pass.
+    private static final int WHEEL_SIZE = 1024;
+
+    /** A scheduled expiry of one cart item. */
+    static final class Timeout {
+        final ShoppingCart cart;
+        final CartItem item;
+        final long deadline;
+        // Fields below are guarded by the wheel's lock
+        long rounds;
+        int bucket = -1;
+        Timeout prev;
+        Timeout next;
+
+        Timeout(ShoppingCart cart, CartItem item, long deadline) {
+            this.cart = cart;
+            this.item = item;
+            this.deadline = deadline;
+        }
+    }
+
+    private final long tickMillis;
+    private final long startTime;
+    // Head of each bucket's list
+    private final Timeout[] wheel = new Timeout[WHEEL_SIZE];
+    private final Object lock = new Object();
+    // Next tick to process; guarded by lock
+    private long tick;
+    private int pending;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private final AtomicLong expiredItems = new AtomicLong();
+    private final AtomicLong expiredUnits = new AtomicLong();
+    private final AtomicLong abandonedCarts = new AtomicLong();
+    private final DoubleAdder abandonedValue = new DoubleAdder();
+
+    public ReservationExpiry(long tickMillis) {
+        this.tickMillis = tickMillis;
+        this.startTime = System.currentTimeMillis();
+        this.thread = new Thread(this::run, "reservation-expiry");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static ReservationExpiry fromSystemProperties() {
+        return new ReservationExpiry(Math.max(10, Long.getLong("shop.reservation.tickMillis", DEFAULT_TICK_MILLIS)));
+    }
+
+    // Schedules the item to expire at its current deadline, replacing any earlier schedule
+    public void schedule(ShoppingCart cart, CartItem item) {
+        Timeout timeout = new Timeout(cart, item, item.getExpiresAt());
+        synchronized (lock) {
+            unlink(item.expiryTimeout);
+            item.expiryTimeout = timeout;
+
+            long due = Math.max(0, timeout.deadline - startTime) / tickMillis;
+            // A deadline already passed goes in the next bucket to be processed
+            long at = Math.max(due, tick);
+            timeout.rounds = (at - tick) / WHEEL_SIZE;
+            timeout.bucket = (int) (at & (WHEEL_SIZE - 1));
+            timeout.next = wheel[timeout.bucket];
+            if (timeout.next != null) {
+                timeout.next.prev = timeout;
+            }
+            wheel[timeout.bucket] = timeout;
+            pending++;
+        }
+    }
+
+    // Stops tracking the item, e.g. when it leaves the cart
+    public void cancel(CartItem item) {
+        synchronized (lock) {
+            unlink(item.expiryTimeout);
+            item.expiryTimeout = null;
+        }
+    }
+
+    // Called with lock held
+    private void unlink(Timeout timeout) {
+        if (timeout == null || timeout.bucket < 0) {
+            return;
+        }
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            wheel[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+        pending--;
+    }
+
+    public void shutdown() {
+        running = false;
+        thread.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            long next;
+            synchronized (lock) {
+                next = startTime + (tick + 1) * tickMillis;
+            }
+            long wait = next - System.currentTimeMillis();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            try {
+                expire(advance());
+            } catch (RuntimeException e) {
+                log.error("Reservation expiry failed: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    // Takes the due timeouts out of the current bucket and moves to the next tick
+    private List<Timeout> advance() {
+        long now = System.currentTimeMillis();
+        List<Timeout> due = new ArrayList<>();
+        synchronized (lock) {
+            int bucket = (int) (tick & (WHEEL_SIZE - 1));
+            Timeout t = wheel[bucket];
+            while (t != null) {
+                Timeout following = t.next;
+                if (t.rounds > 0) {
+                    t.rounds--;
+                } else if (t.deadline <= now) {
+                    unlink(t);
+                    t.item.expiryTimeout = null;
+                    due.add(t);
+                } else {
+                    // Deadline falls later in this tick: check it again on the next one
+                    unlink(t);
+                    t.bucket = (int) ((tick + 1) & (WHEEL_SIZE - 1));
+                    t.next = wheel[t.bucket];
+                    if (t.next != null) {
+                        t.next.prev = t;
+                    }
+                    wheel[t.bucket] = t;
+                    pending++;
+                }
+                t = following;
+            }
+            tick++;
+        }
+        return due;
+    }
+
+    // Expires the due items, locking each cart once
+    private void expire(List<Timeout> due) {
+        if (due.isEmpty()) {
+            return;
+        }
+        Map<ShoppingCart, List<CartItem>> byCart = new IdentityHashMap<>();
+        for (Timeout t : due) {
+            byCart.computeIfAbsent(t.cart, c -> new ArrayList<>()).add(t.item);
+        }
+
+        int items = 0;
+        for (Map.Entry<ShoppingCart, List<CartItem>> e : byCart.entrySet()) {
+            ShoppingCart cart = e.getKey();
+            List<CartItem> expired;
+            boolean emptied;
+            synchronized (cart) {
+                expired = cart.expireItems(e.getValue());
+                emptied = !expired.isEmpty() && cart.getItems().isEmpty();
+            }
+            for (CartItem item : expired) {
+                expiredUnits.addAndGet(item.getQuantity());
+                abandonedValue.add(item.getSubtotal());
+            }
+            items += expired.size();
+            if (emptied) {
+                abandonedCarts.incrementAndGet();
+            }
+        }
+        expiredItems.addAndGet(items);
+        if (items > 0) {
+            log.info("Expired {} cart reservations in {} carts", items, byCart.size());
+        }
+    }
+
+    // Metrics
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pending;
+        }
+    }
+
+    public long getExpiredItems() { return expiredItems.get(); }
+    public long getExpiredUnits() { return expiredUnits.get(); }
+    public long getAbandonedCarts() { return abandonedCarts.get(); }
+    public double getAbandonedValue() { return abandonedValue.sum(); }
+
+    public void writeTo(PrometheusText out) {
+        out.gauge("shop_reservations_scheduled", "Cart reservations waiting to expire.", getPendingCount());
+        out.counter("shop_reservations_expired_total", "Cart items dropped when their reservation ran out.", getExpiredItems());
+        out.counter("shop_reservations_expired_units_total", "Units released by expired reservations.", getExpiredUnits());
+        out.counter("shop_reservations_abandoned_carts_total", "Carts emptied by expired reservations.", getAbandonedCarts());
+        out.counter("shop_reservations_abandoned_value_total", "Value of the cart items dropped on expiry.", getAbandonedValue());
+    }
+}
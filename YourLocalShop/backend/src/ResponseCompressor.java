@@ -0,0 +1,169 @@
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Picks a Content-Encoding from the client's Accept-Encoding header and
+ * compresses response bodies, keeping running totals of the work done.
+ *
+ * Bodies smaller than the threshold are sent as-is (small cart responses
+ * gain nothing from compression). The threshold can be changed with the
+ * shop.compression.minBytes system property.
+ */
+public class ResponseCompressor {
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private static final int DEFAULT_MIN_BYTES = 1024;
+
+    private final int minBytes;
+
+    // Metrics
+    private final AtomicLong compressedResponses = new AtomicLong();
+    private final AtomicLong skippedResponses = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong compressNanos = new AtomicLong();
+
+    public ResponseCompressor(int minBytes) {
+        this.minBytes = minBytes;
+    }
+
+    public static ResponseCompressor fromSystemProperties() {
+        return new ResponseCompressor(Integer.getInteger("shop.compression.minBytes", DEFAULT_MIN_BYTES));
+    }
+
+    /**
+     * Returns the encoding to use for a body of the given size,
+     * or null to send it uncompressed. gzip wins over deflate on a tie.
+     */
+    public String negotiate(String acceptEncoding, int bodyLength) {
+        if (acceptEncoding == null || bodyLength < minBytes) {
+            if (acceptEncoding != null) skippedResponses.incrementAndGet();
+            return null;
+        }
+
+        // -1 means the coding was not listed at all
+        double gzipQ = -1;
+        double deflateQ = -1;
+        double anyQ = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String[] fields = part.trim().split(";");
+            String coding = fields[0].trim().toLowerCase();
+            double q = 1.0;
+            for (int i = 1; i < fields.length; i++) {
+                String param = fields[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException ignored) {
+                        q = 0;
+                    }
+                }
+            }
+            switch (coding) {
+                case GZIP, "x-gzip" -> gzipQ = q;
+                case DEFLATE -> deflateQ = q;
+                case "*" -> anyQ = q;
+                default -> { }
+            }
+        }
+        if (gzipQ < 0) gzipQ = anyQ;
+        if (deflateQ < 0) deflateQ = anyQ;
+
+        if (gzipQ > 0 && gzipQ >= deflateQ) return GZIP;
+        if (deflateQ > 0) return DEFLATE;
+        return null;
+    }
+
+    // Compresses a body with the given encoding ("gzip" or "deflate")
+    public byte[] compress(byte[] body, String encoding) {
+        long start = System.nanoTime();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+        try (OutputStream out = GZIP.equals(encoding)
+                ? new GZIPOutputStream(buffer)
+                : new DeflaterOutputStream(buffer)) {
+            out.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] compressed = buffer.toByteArray();
+
+        compressNanos.addAndGet(System.nanoTime() - start);
+        compressedResponses.incrementAndGet();
+        bytesIn.addAndGet(body.length);
+        bytesOut.addAndGet(compressed.length);
+        return compressed;
+    }
+
+    /**
+     * Wraps a response stream so everything written to it is compressed on the fly.
+     * Used for streamed bodies whose size is not known up front.
+     */
+    public OutputStream wrap(OutputStream out, String encoding) throws IOException {
+        if (encoding == null) {
+            return out;
+        }
+        CountingStream sink = new CountingStream(out);
+        OutputStream compressed = GZIP.equals(encoding) ? new GZIPOutputStream(sink) : new DeflaterOutputStream(sink);
+        return new CountingStream(compressed) {
+            private final long start = System.nanoTime();
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                // Includes time spent writing to the client, since the two are interleaved
+                compressNanos.addAndGet(System.nanoTime() - start);
+                compressedResponses.incrementAndGet();
+                bytesIn.addAndGet(count);
+                bytesOut.addAndGet(sink.count);
+            }
+        };
+    }
+
+    // Counts the bytes passing through to the wrapped stream
+    private static class CountingStream extends FilterOutputStream {
+        protected long count;
+
+        CountingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    // Getters
+    public int getMinBytes() { return minBytes; }
+    public long getCompressedCount() { return compressedResponses.get(); }
+    public long getSkippedCount() { return skippedResponses.get(); }
+    public long getBytesIn() { return bytesIn.get(); }
+    public long getBytesOut() { return bytesOut.get(); }
+    public long getCompressNanos() { return compressNanos.get(); }
+
+    // Compressed size as a fraction of the original (lower is better)
+    public double getCompressionRatio() {
+        long in = bytesIn.get();
+        return in == 0 ? 1.0 : (double) bytesOut.get() / in;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Compression: %d compressed, %d skipped, ratio %.2f, %.1f ms spent",
+                getCompressedCount(), getSkippedCount(), getCompressionRatio(), getCompressNanos() / 1_000_000.0);
+    }
+}
@@ -0,0 +1,289 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Maps method + path template to a handler, e.g.
+ *   router.get("/api/products/{id}", products::getById);
+ *
+ * Templates are compiled once into a trie of path segments. A request is
+ * matched by walking the raw path segment by segment, so no splitting or
+ * regex work happens per request. Literal segments win over {params}.
+ *
+ * OPTIONS (CORS preflight) is answered for every known path, unknown
+ * paths get a 404 and known paths with the wrong method get a 405.
+ *
+ * The matched template is kept for the handling thread so a wrapper
+ * (RequestMetrics) can label the request by route with takeMatchedRoute().
+ * Exchange attributes can't be used for this: HttpServer shares them
+ * across every exchange of a context.
+ */
+public class Router implements HttpHandler {
+    private static final Logger log = LoggerFactory.getLogger(Router.class);
+    private static final ThreadLocal<String> matchedRoute = new ThreadLocal<>();
+
+    @FunctionalInterface
+    public interface Route {
+        void handle(HttpExchange exchange, Request request) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface ErrorResponder {
+        void send(HttpExchange exchange, int statusCode, String message) throws IOException;
+    }
+
+    /**
+     * Path and query parameters of a matched request.
+     * Query parameters are only parsed if a handler asks for them.
+     */
+    public static class Request {
+        private final Map<String, String> pathParams;
+        private final String rawQuery;
+        private Map<String, String> queryParams;
+
+        Request(Map<String, String> pathParams, String rawQuery) {
+            this.pathParams = pathParams;
+            this.rawQuery = rawQuery;
+        }
+
+        public String path(String name) {
+            return pathParams.get(name);
+        }
+
+        public String query(String name) {
+            return queryParams().get(name);
+        }
+
+        public String query(String name, String defaultValue) {
+            String value = query(name);
+            return value == null || value.isEmpty() ? defaultValue : value;
+        }
+
+        public int queryInt(String name, int defaultValue) {
+            String value = query(name);
+            if (value == null || value.isEmpty()) return defaultValue;
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Query parameter '" + name + "' must be a whole number.");
+            }
+        }
+
+        public Double queryDouble(String name) {
+            String value = query(name);
+            if (value == null || value.isEmpty()) return null;
+            try {
+                return Double.parseDouble(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Query parameter '" + name + "' must be a number.");
+            }
+        }
+
+        public boolean queryBoolean(String name) {
+            String value = query(name);
+            return value != null && (value.equalsIgnoreCase("true") || value.equals("1"));
+        }
+
+        public Map<String, String> queryParams() {
+            if (queryParams == null) {
+                queryParams = parseQuery(rawQuery);
+            }
+            return queryParams;
+        }
+
+        private static Map<String, String> parseQuery(String rawQuery) {
+            Map<String, String> params = new LinkedHashMap<>();
+            if (rawQuery == null || rawQuery.isEmpty()) {
+                return params;
+            }
+            int start = 0;
+            while (start <= rawQuery.length()) {
+                int end = rawQuery.indexOf('&', start);
+                if (end < 0) end = rawQuery.length();
+                if (end > start) {
+                    int eq = rawQuery.indexOf('=', start);
+                    if (eq < 0 || eq > end) {
+                        params.putIfAbsent(URLDecoder.decode(rawQuery.substring(start, end), StandardCharsets.UTF_8), "");
+                    } else {
+                        params.putIfAbsent(URLDecoder.decode(rawQuery.substring(start, eq), StandardCharsets.UTF_8),
+                                URLDecoder.decode(rawQuery.substring(eq + 1, end), StandardCharsets.UTF_8));
+                    }
+                }
+                start = end + 1;
+            }
+            return params;
+        }
+    }
+
+    // One path segment in the trie
+    private static class Node {
+        final Map<String, Node> literals = new HashMap<>();
+        Node param;
+        String paramName;
+        String template;
+        final Map<String, Route> routes = new HashMap<>();
+    }
+
+    private final Node root = new Node();
+    private final ErrorResponder errors;
+    private final HttpHandler preflight;
+
+    public Router(ErrorResponder errors, HttpHandler preflight) {
+        this.errors = errors;
+        this.preflight = preflight;
+    }
+
+    public Router get(String template, Route route) { return add("GET", template, route); }
+    public Router post(String template, Route route) { return add("POST", template, route); }
+    public Router delete(String template, Route route) { return add("DELETE", template, route); }
+
+    public Router add(String method, String template, Route route) {
+        Node node = root;
+        for (String segment : template.split("/")) {
+            if (segment.isEmpty()) continue;
+
+            if (segment.startsWith("{") && segment.endsWith("}")) {
+                String name = segment.substring(1, segment.length() - 1);
+                if (node.param == null) {
+                    node.param = new Node();
+                    node.paramName = name;
+                } else if (!node.paramName.equals(name)) {
+                    throw new IllegalArgumentException("Conflicting parameter names at " + template);
+                }
+                node = node.param;
+            } else {
+                node = node.literals.computeIfAbsent(segment, s -> new Node());
+            }
+        }
+        node.template = template;
+        if (node.routes.putIfAbsent(method, route) != null) {
+            throw new IllegalArgumentException("Duplicate route: " + method + " " + template);
+        }
+        return this;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        String rawPath = exchange.getRequestURI().getRawPath();
+        log.debug("{} {}", exchange.getRequestMethod(), rawPath);
+        Map<String, String> params = new HashMap<>(4);
+        Node node;
+        try {
+            node = match(rawPath, params);
+        } catch (IllegalArgumentException e) {
+            // A path parameter with a malformed percent-escape, e.g. %zz
+            errors.send(exchange, 400, "Malformed path: " + e.getMessage());
+            return;
+        }
+
+        if (node == null || node.routes.isEmpty()) {
+            errors.send(exchange, 404, "Endpoint not found");
+            return;
+        }
+        matchedRoute.set(node.template);
+
+        String method = exchange.getRequestMethod();
+        if ("OPTIONS".equals(method)) {
+            preflight.handle(exchange);
+            return;
+        }
+
+        Route route = node.routes.get(method);
+        if (route == null) {
+            exchange.getResponseHeaders().set("Allow", String.join(", ", new TreeSet<>(node.routes.keySet())));
+            errors.send(exchange, 405, "Method not allowed");
+            return;
+        }
+
+        Request request = new Request(params, exchange.getRequestURI().getRawQuery());
+        try {
+            route.handle(exchange, request);
+        } catch (IllegalArgumentException e) {
+            // Bad parameters from the client
+            if (exchange.getResponseCode() == -1) {
+                errors.send(exchange, 400, e.getMessage());
+            } else {
+                throw e;
+            }
+        }
+    }
+
+    // Template matched by the last request handled on this thread (null if none), and clears it
+    public static String takeMatchedRoute() {
+        String route = matchedRoute.get();
+        matchedRoute.remove();
+        return route;
+    }
+
+    // Walks the trie one segment at a time; literal children are tried before {params}
+    private Node match(String path, Map<String, String> params) {
+        return match(root, path, 0, params);
+    }
+
+    private Node match(Node node, String path, int pos, Map<String, String> params) {
+        // Skip slashes (also handles a trailing slash)
+        while (pos < path.length() && path.charAt(pos) == '/') pos++;
+        if (pos >= path.length()) {
+            return node;
+        }
+
+        int end = path.indexOf('/', pos);
+        if (end < 0) end = path.length();
+        String segment = path.substring(pos, end);
+
+        Node literal = node.literals.get(segment);
+        if (literal != null) {
+            Node found = match(literal, path, end, params);
+            if (found != null && !found.routes.isEmpty()) {
+                return found;
+            }
+        }
+
+        if (node.param != null) {
+            Node found = match(node.param, path, end, params);
+            if (found != null && !found.routes.isEmpty()) {
+                params.put(node.paramName, decodeSegment(segment));
+                return found;
+            }
+        }
+        return null;
+    }
+
+    // Percent-decodes a path segment ('+' is a literal plus in paths, unlike query strings)
+    private static String decodeSegment(String segment) {
+        if (segment.indexOf('%') < 0) {
+            return segment;
+        }
+        return URLDecoder.decode(segment.replace("+", "%2B"), StandardCharsets.UTF_8);
+    }
+
+    // Lists the registered routes, for startup logging
+    public List<String> describe() {
+        List<String> lines = new ArrayList<>();
+        describe(root, "", lines);
+        return lines;
+    }
+
+    private void describe(Node node, String prefix, List<String> lines) {
+        for (String method : new TreeSet<>(node.routes.keySet())) {
+            lines.add(method + " " + (prefix.isEmpty() ? "/" : prefix));
+        }
+        for (Map.Entry<String, Node> e : node.literals.entrySet()) {
+            describe(e.getValue(), prefix + "/" + e.getKey(), lines);
+        }
+        if (node.param != null) {
+            describe(node.param, prefix + "/{" + node.paramName + "}", lines);
+        }
+    }
+}
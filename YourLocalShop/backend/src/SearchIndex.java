@@ -0,0 +1,474 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Full-text search over product name, category and description.
+ *
+ * Every product gets an int document id. Each term maps to a posting
+ * list of (doc id, weighted term frequency) held in two int arrays sorted
+ * by doc id, so queries intersect sorted arrays instead of sets of objects.
+ * Name matches count 3x and category matches 2x a description match.
+ *
+ * All query terms must match (AND). The last term also matches as a prefix,
+ * so "choc" finds "chocolate" while the user is still typing. Results are
+ * ranked with BM25.
+ *
+ * Products are added, updated and removed one at a time as the catalog
+ * changes; only a full catalog load rebuilds the index.
+ */
+public class SearchIndex {
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int NAME_WEIGHT = 3;
+    private static final int CATEGORY_WEIGHT = 2;
+    private static final int DESCRIPTION_WEIGHT = 1;
+    private static final int MAX_QUERY_TERMS = 8;
+
+    /** Ranked search results. */
+    public static class Result {
+        private final List<Product> items;
+        private final int total;
+
+        Result(List<Product> items, int total) {
+            this.items = items;
+            this.total = total;
+        }
+
+        public List<Product> getItems() { return items; }
+        public int getTotal() { return total; }
+    }
+
+    // Documents containing one term, sorted by doc id
+    private static class Postings {
+        int[] docs = new int[4];
+        int[] freqs = new int[4];
+        int size;
+
+        // Appends when doc is the largest so far (the common case), otherwise inserts in place
+        void add(int doc, int freq) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            int i = size;
+            if (size > 0 && docs[size - 1] > doc) {
+                i = -Arrays.binarySearch(docs, 0, size, doc) - 1;
+                System.arraycopy(docs, i, docs, i + 1, size - i);
+                System.arraycopy(freqs, i, freqs, i + 1, size - i);
+            }
+            docs[i] = doc;
+            freqs[i] = freq;
+            size++;
+        }
+
+        void remove(int doc) {
+            int i = Arrays.binarySearch(docs, 0, size, doc);
+            if (i < 0) return;
+            System.arraycopy(docs, i + 1, docs, i, size - i - 1);
+            System.arraycopy(freqs, i + 1, freqs, i, size - i - 1);
+            size--;
+        }
+
+        int freqOf(int doc) {
+            int i = Arrays.binarySearch(docs, 0, size, doc);
+            return i < 0 ? 0 : freqs[i];
+        }
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Sorted so prefix lookups are a range scan
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private final Map<Product, Integer> docIds = new IdentityHashMap<>();
+
+    // Indexed by doc id; null once a product is removed
+    private Product[] docs = new Product[16];
+    private String[][] docTerms = new String[16][];
+    private int[] docLengths = new int[16];
+    private int nextDoc;
+    // Ids of removed products, reused before new ones so edits and deletes don't grow the arrays
+    private int[] freeDocs = new int[16];
+    private int freeCount;
+    private int liveDocs;
+    private long totalLength;
+
+    public void rebuild(List<Product> products) {
+        lock.writeLock().lock();
+        try {
+            terms.clear();
+            docIds.clear();
+            docs = new Product[Math.max(16, products.size())];
+            docTerms = new String[docs.length][];
+            docLengths = new int[docs.length];
+            nextDoc = 0;
+            freeCount = 0;
+            liveDocs = 0;
+            totalLength = 0;
+            for (Product p : products) {
+                addLocked(p);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void add(Product p) {
+        lock.writeLock().lock();
+        try {
+            if (!docIds.containsKey(p)) {
+                addLocked(p);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Product p) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(p);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Re-indexes a product after its name, category or description changed; it keeps its doc id
+    public void update(Product p) {
+        lock.writeLock().lock();
+        try {
+            if (removeLocked(p)) {
+                addLocked(p);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addLocked(Product p) {
+        Map<String, Integer> freqs = new HashMap<>();
+        int length = countTerms(p.getName(), NAME_WEIGHT, freqs)
+                + countTerms(p.getCategory(), CATEGORY_WEIGHT, freqs)
+                + countTerms(p.getDescription(), DESCRIPTION_WEIGHT, freqs);
+
+        int doc;
+        if (freeCount > 0) {
+            // The id removeLocked() freed last, so an update gets its old id back
+            doc = freeDocs[--freeCount];
+        } else {
+            doc = nextDoc++;
+            if (doc == docs.length) {
+                int capacity = docs.length * 2;
+                docs = Arrays.copyOf(docs, capacity);
+                docTerms = Arrays.copyOf(docTerms, capacity);
+                docLengths = Arrays.copyOf(docLengths, capacity);
+            }
+        }
+        docs[doc] = p;
+        docLengths[doc] = length;
+        docTerms[doc] = freqs.keySet().toArray(new String[0]);
+        docIds.put(p, doc);
+        liveDocs++;
+        totalLength += length;
+
+        for (Map.Entry<String, Integer> e : freqs.entrySet()) {
+            terms.computeIfAbsent(e.getKey(), k -> new Postings()).add(doc, e.getValue());
+        }
+    }
+
+    private boolean removeLocked(Product p) {
+        Integer doc = docIds.remove(p);
+        if (doc == null) {
+            return false;
+        }
+        for (String term : docTerms[doc]) {
+            Postings postings = terms.get(term);
+            postings.remove(doc);
+            if (postings.size == 0) {
+                terms.remove(term);
+            }
+        }
+        liveDocs--;
+        totalLength -= docLengths[doc];
+        docs[doc] = null;
+        docTerms[doc] = null;
+        if (freeCount == freeDocs.length) {
+            freeDocs = Arrays.copyOf(freeDocs, freeCount * 2);
+        }
+        freeDocs[freeCount++] = doc;
+        return true;
+    }
+
+    private static int countTerms(String text, int weight, Map<String, Integer> freqs) {
+        int count = 0;
+        for (String term : tokenize(text)) {
+            freqs.merge(term, weight, Integer::sum);
+            count += weight;
+        }
+        return count;
+    }
+
+    // Lower-cased runs of letters and digits
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Products matching every term of the query, best first.
+     * Throws IllegalArgumentException if the query has no searchable terms.
+     */
+    public Result search(String query, int limit) {
+        List<String> queryTerms = tokenize(query);
+        if (queryTerms.isEmpty()) {
+            throw new IllegalArgumentException("Search query must contain letters or digits.");
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be at least 1.");
+        }
+        if (queryTerms.size() > MAX_QUERY_TERMS) {
+            queryTerms = queryTerms.subList(0, MAX_QUERY_TERMS);
+        }
+
+        lock.readLock().lock();
+        try {
+            return searchLocked(queryTerms, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // One query term during evaluation: sorted docs with either raw frequencies or ready-made scores
+    private static class TermMatches {
+        final int[] docs;
+        final int size;
+        final int[] freqs;      // exact term
+        final double idf;
+        final double[] scores;  // merged prefix expansions
+        int pos;
+
+        TermMatches(Postings postings, double idf) {
+            this.docs = postings.docs;
+            this.size = postings.size;
+            this.freqs = postings.freqs;
+            this.idf = idf;
+            this.scores = null;
+        }
+
+        TermMatches(int[] docs, double[] scores, int size) {
+            this.docs = docs;
+            this.size = size;
+            this.freqs = null;
+            this.idf = 0;
+            this.scores = scores;
+        }
+
+        // Moves to the first doc >= target by galloping; returns false if there is none
+        boolean advanceTo(int target) {
+            if (pos >= size) return false;
+            if (docs[pos] >= target) return true;
+            int step = 1;
+            int lo = pos;
+            int hi = pos + 1;
+            while (hi < size && docs[hi] < target) {
+                lo = hi;
+                step <<= 1;
+                hi = lo + step;
+            }
+            int found = Arrays.binarySearch(docs, lo + 1, Math.min(hi + 1, size), target);
+            pos = found >= 0 ? found : -found - 1;
+            return pos < size;
+        }
+
+        double score(double norm) {
+            return scores != null ? scores[pos] : bm25(idf, freqs[pos], norm);
+        }
+    }
+
+    private Result searchLocked(List<String> queryTerms, int limit) {
+        double avgLength = liveDocs == 0 ? 1 : (double) totalLength / liveDocs;
+        List<TermMatches> lists = new ArrayList<>(queryTerms.size());
+
+        for (String term : queryTerms.subList(0, queryTerms.size() - 1)) {
+            Postings postings = terms.get(term);
+            if (postings == null) {
+                return new Result(List.of(), 0);
+            }
+            lists.add(new TermMatches(postings, idf(postings.size)));
+        }
+
+        // The last term: itself plus every term it is a prefix of, so the total stays exact
+        String prefix = queryTerms.get(queryTerms.size() - 1);
+        List<Postings> expansions = new ArrayList<>(terms.subMap(prefix, prefix + Character.MAX_VALUE).values());
+        if (expansions.isEmpty()) {
+            return new Result(List.of(), 0);
+        }
+        lists.add(expansions.size() == 1
+                ? new TermMatches(expansions.get(0), idf(expansions.get(0).size))
+                : mergeExpansions(expansions, avgLength));
+
+        // Drive from the rarest term and skip ahead in the others
+        lists.sort((a, b) -> Integer.compare(a.size, b.size));
+        TermMatches lead = lists.get(0);
+
+        int[] topDocs = new int[limit];
+        double[] topScores = new double[limit];
+        int topSize = 0;
+        int total = 0;
+
+        candidates:
+        for (lead.pos = 0; lead.pos < lead.size; lead.pos++) {
+            int doc = lead.docs[lead.pos];
+            for (int i = 1; i < lists.size(); i++) {
+                TermMatches other = lists.get(i);
+                if (!other.advanceTo(doc)) break candidates;
+                if (other.docs[other.pos] != doc) continue candidates;
+            }
+            total++;
+
+            double norm = K1 * (1 - B + B * docLengths[doc] / avgLength);
+            double score = 0;
+            for (TermMatches list : lists) {
+                score += list.score(norm);
+            }
+            if (topSize < limit) {
+                topSize = heapPush(topDocs, topScores, topSize, doc, score);
+            } else if (score > topScores[0]) {
+                heapReplaceMin(topDocs, topScores, topSize, doc, score);
+            }
+        }
+
+        // Pop the min-heap from the back so the best result ends up first
+        Product[] ranked = new Product[topSize];
+        for (int i = topSize - 1; i >= 0; i--) {
+            ranked[i] = docs[topDocs[0]];
+            topDocs[0] = topDocs[i];
+            topScores[0] = topScores[i];
+            siftDown(topDocs, topScores, i, 0);
+        }
+        return new Result(Arrays.asList(ranked), total);
+    }
+
+    /**
+     * Unions the posting lists of a prefix's expansions into one sorted list.
+     * A doc's score is its best single expansion, so a prefix can't outweigh
+     * a full word just by matching several forms of it.
+     */
+    private TermMatches mergeExpansions(List<Postings> expansions, double avgLength) {
+        int total = 0;
+        for (Postings postings : expansions) total += postings.size;
+
+        // Score every entry, then pack (doc, entry index) into longs and sort once instead of a k-way merge
+        long[] entries = new long[total];
+        double[] entryScores = new double[total];
+        int n = 0;
+        for (Postings postings : expansions) {
+            double idf = idf(postings.size);
+            for (int i = 0; i < postings.size; i++) {
+                int doc = postings.docs[i];
+                double norm = K1 * (1 - B + B * docLengths[doc] / avgLength);
+                entryScores[n] = bm25(idf, postings.freqs[i], norm);
+                entries[n] = ((long) doc << 32) | n;
+                n++;
+            }
+        }
+        Arrays.sort(entries);
+
+        int[] docs = new int[total];
+        double[] scores = new double[total];
+        int size = 0;
+        for (long entry : entries) {
+            int doc = (int) (entry >>> 32);
+            double score = entryScores[(int) entry];
+            if (size > 0 && docs[size - 1] == doc) {
+                scores[size - 1] = Math.max(scores[size - 1], score);
+            } else {
+                docs[size] = doc;
+                scores[size] = score;
+                size++;
+            }
+        }
+        return new TermMatches(docs, scores, size);
+    }
+
+    // Min-heap on score held in two parallel arrays
+    private static int heapPush(int[] docs, double[] scores, int size, int doc, double score) {
+        int i = size;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (scores[parent] <= score) break;
+            docs[i] = docs[parent];
+            scores[i] = scores[parent];
+            i = parent;
+        }
+        docs[i] = doc;
+        scores[i] = score;
+        return size + 1;
+    }
+
+    private static void heapReplaceMin(int[] docs, double[] scores, int size, int doc, double score) {
+        docs[0] = doc;
+        scores[0] = score;
+        siftDown(docs, scores, size, 0);
+    }
+
+    private static void siftDown(int[] docs, double[] scores, int size, int i) {
+        int doc = docs[i];
+        double score = scores[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && scores[child + 1] < scores[child]) child++;
+            if (scores[child] >= score) break;
+            docs[i] = docs[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+        docs[i] = doc;
+        scores[i] = score;
+    }
+
+    private double idf(int docFreq) {
+        return Math.log(1 + (liveDocs - docFreq + 0.5) / (docFreq + 0.5));
+    }
+
+    private static double bm25(double idf, int freq, double norm) {
+        return freq == 0 ? 0 : idf * freq * (K1 + 1) / (freq + norm);
+    }
+
+    public int getDocumentCount() {
+        lock.readLock().lock();
+        try {
+            return liveDocs;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getTermCount() {
+        lock.readLock().lock();
+        try {
+            return terms.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
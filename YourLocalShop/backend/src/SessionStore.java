@@ -0,0 +1,187 @@
+import com.sun.net.httpserver.HttpExchange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shopping carts for web clients, keyed by a random session token.
+ *
+ * The token is read from the X-Session-Token header or the SHOP_SESSION
+ * cookie and handed back in both on every response. Sessions that have
+ * been idle longer than the TTL are removed by a background sweeper,
+ * which also releases any stock their cart still has reserved.
+ *
+ * TTL is set with the shop.session.ttlMinutes system property (default 30).
+ */
+public class SessionStore {
+    public static final String HEADER = "X-Session-Token";
+    public static final String COOKIE = "SHOP_SESSION";
+
+    private static final long DEFAULT_TTL_MINUTES = 30;
+    // Rough heap cost used for the memory metric
+    private static final long SESSION_BYTES = 320;
+    private static final long CART_ITEM_BYTES = 96;
+    private static final Logger log = LoggerFactory.getLogger(SessionStore.class);
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final InventoryManager inventory;
+    private final ReservationExpiry expiry;
+    private final long ttlMillis;
+    private final SecureRandom random = new SecureRandom();
+    private final ScheduledExecutorService sweeper;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    static class Session {
+        final String token;
+        final ShoppingCart cart;
+        volatile long lastAccess;
+
+        Session(String token, ShoppingCart cart) {
+            this.token = token;
+            this.cart = cart;
+            this.lastAccess = System.currentTimeMillis();
+        }
+    }
+
+    public SessionStore(InventoryManager inventory, ReservationExpiry expiry, long ttlMillis) {
+        this.inventory = inventory;
+        this.expiry = expiry;
+        this.ttlMillis = ttlMillis;
+
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Starts sweeping idle sessions
+    public SessionStore start() {
+        long period = Math.max(1000, ttlMillis / 4);
+        sweeper.scheduleAtFixedRate(this::evictIdleSessions, period, period, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    public static SessionStore fromSystemProperties(InventoryManager inventory, ReservationExpiry expiry) {
+        long ttlMinutes = Long.getLong("shop.session.ttlMinutes", DEFAULT_TTL_MINUTES);
+        return new SessionStore(inventory, expiry, TimeUnit.MINUTES.toMillis(ttlMinutes)).start();
+    }
+
+    /**
+     * Returns the cart for the request's session, starting a new session
+     * if the client didn't send a known token. The token is always echoed
+     * back on the response.
+     */
+    public ShoppingCart getCart(HttpExchange exchange) {
+        return getSession(exchange).cart;
+    }
+
+    // Ends the request's session (e.g. after checkout); the next request starts a fresh one.
+    // The token issued on the response comes first: this request may have started the session.
+    public void endSession(HttpExchange exchange) {
+        String token = exchange.getResponseHeaders().getFirst(HEADER);
+        if (token == null) {
+            token = readToken(exchange);
+        }
+        Session session = token != null ? sessions.remove(token) : null;
+        if (session != null) {
+            // Whatever the cart still holds goes back, as when a session is evicted
+            synchronized (session.cart) {
+                session.cart.releaseAll();
+            }
+        }
+    }
+
+    private Session getSession(HttpExchange exchange) {
+        String token = readToken(exchange);
+        Session session = token != null ? sessions.get(token) : null;
+
+        if (session == null) {
+            session = new Session(newToken(), new ShoppingCart(inventory, expiry));
+            sessions.put(session.token, session);
+            created.incrementAndGet();
+        }
+        session.lastAccess = System.currentTimeMillis();
+
+        exchange.getResponseHeaders().set(HEADER, session.token);
+        exchange.getResponseHeaders().set("Set-Cookie",
+                COOKIE + "=" + session.token + "; Path=/; HttpOnly; SameSite=Lax; Max-Age=" + ttlMillis / 1000);
+        return session;
+    }
+
+    private String readToken(HttpExchange exchange) {
+        String token = exchange.getRequestHeaders().getFirst(HEADER);
+        if (token != null && !token.isBlank()) {
+            return token.trim();
+        }
+
+        String cookies = exchange.getRequestHeaders().getFirst("Cookie");
+        if (cookies != null) {
+            for (String cookie : cookies.split(";")) {
+                String c = cookie.trim();
+                if (c.startsWith(COOKIE + "=")) {
+                    return c.substring(COOKIE.length() + 1);
+                }
+            }
+        }
+        return null;
+    }
+
+    private String newToken() {
+        byte[] bytes = new byte[18];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    // Removes idle sessions and gives their reserved stock back
+    void evictIdleSessions() {
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        int count = 0;
+
+        for (Session session : sessions.values()) {
+            if (session.lastAccess < cutoff && sessions.remove(session.token, session)) {
+                synchronized (session.cart) {
+                    session.cart.releaseAll();
+                }
+                count++;
+            }
+        }
+
+        if (count > 0) {
+            evicted.addAndGet(count);
+            log.info("Evicted {} idle sessions ({} active)", count, sessions.size());
+        }
+    }
+
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+
+    // Metrics
+    public int getSessionCount() { return sessions.size(); }
+    public long getCreatedCount() { return created.get(); }
+    public long getEvictedCount() { return evicted.get(); }
+
+    public int getCartItemCount() {
+        int items = 0;
+        for (Session session : sessions.values()) {
+            items += session.cart.getItems().size();
+        }
+        return items;
+    }
+
+    // Approximate heap used by sessions and their carts
+    public long getEstimatedMemoryBytes() {
+        return sessions.size() * SESSION_BYTES + getCartItemCount() * CART_ITEM_BYTES;
+    }
+}
@@ -1,14 +1,68 @@
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import exceptions.InsufficientStockException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class ShoppingCart {
 
+    private static final Logger log = LoggerFactory.getLogger(ShoppingCart.class);
+
     private final List<CartItem> items = new ArrayList<>();
     private final InventoryManager inventory;
+    // Releases reservations in the background when set; otherwise they lapse when the cart is next used
+    private final ReservationExpiry expiry;
+
+    // One line of a batch update; quantity is ignored for REMOVE
+    public static class CartChange {
+        public enum Op { ADD, SET, REMOVE }
+
+        private final Op op;
+        private final Product product;
+        private final int quantity;
+
+        public CartChange(Op op, Product product, int quantity) {
+            if (product == null) {
+                throw new IllegalArgumentException("Invalid product.");
+            }
+            if (op == Op.ADD && quantity < 1) {
+                throw new IllegalArgumentException("Quantity must be at least 1.");
+            }
+            if (op == Op.SET && quantity < 0) {
+                throw new IllegalArgumentException("Quantity cannot be negative.");
+            }
+            this.op = op;
+            this.product = product;
+            this.quantity = quantity;
+        }
+
+        public Op getOp() { return op; }
+        public Product getProduct() { return product; }
+        public int getQuantity() { return quantity; }
+    }
 
     public ShoppingCart(InventoryManager inventory) {
+        this(inventory, null);
+    }
+
+    public ShoppingCart(InventoryManager inventory, ReservationExpiry expiry) {
         this.inventory = inventory;
+        this.expiry = expiry;
+    }
+
+    // Schedules the item's reservation to expire (again, after it was refreshed)
+    private void track(CartItem item) {
+        if (expiry != null) {
+            expiry.schedule(this, item);
+        }
+    }
+
+    private void untrack(CartItem item) {
+        if (expiry != null) {
+            expiry.cancel(item);
+        }
     }
 
 
@@ -36,6 +90,7 @@ public class ShoppingCart {
                 if (item.isReservationExpired()) {
                     inventory.releaseReservation(product.getId(), item.getQuantity());
                     items.remove(item);
+                    untrack(item);
                     break;
                 }
 
@@ -45,7 +100,8 @@ public class ShoppingCart {
                 if (inventory.reserveStock(product.getId(), additionalQuantity)) {
                     item.setQuantity(newTotal);
                     item.refreshReservation();
-                    System.out.println(quantity + "x " + product.getName() + " added to cart.");
+                    track(item);
+                    log.info("{}x {} added to cart.", quantity, product.getName());
                     return;
                 } else {
                     throw new InsufficientStockException(product.getId(), additionalQuantity,
@@ -56,8 +112,10 @@ public class ShoppingCart {
 
         // Add as new item
         if (inventory.reserveStock(product.getId(), quantity)) {
-            items.add(new CartItem(product, quantity));
-            System.out.println("Added " + quantity + " x " + product.getName() + " to cart.");
+            CartItem item = new CartItem(product, quantity);
+            items.add(item);
+            track(item);
+            log.info("Added {} x {} to cart.", quantity, product.getName());
         } else {
             throw new InsufficientStockException(product.getId(), quantity,
                     inventory.getStock(product.getId()));
@@ -77,10 +135,75 @@ public class ShoppingCart {
             // Release reservation
             inventory.releaseReservation(productId, toRemove.getQuantity());
             items.remove(toRemove);
-            System.out.println("Removed " + toRemove.getProduct().getName() + " from cart.");
+            untrack(toRemove);
+            log.info("Removed {} from cart.", toRemove.getProduct().getName());
         } else {
-            System.out.println("Item not found in cart.");
+            log.info("Item not found in cart.");
+        }
+    }
+
+    /**
+     * Applies several adds, quantity changes and removals as one update.
+     * Changes to the same product are combined first, then the net stock
+     * difference for every product is reserved or released in one call, so
+     * either the whole batch is applied or the cart and stock are untouched.
+     */
+    public void applyChanges(List<CartChange> changes) throws InsufficientStockException {
+        cleanExpiredItems();
+
+        Map<String, CartItem> existing = new LinkedHashMap<>();
+        for (CartItem item : items) {
+            existing.put(item.getProduct().getId(), item);
+        }
+
+        // Quantity of each touched product once every change is applied
+        Map<String, Integer> target = new LinkedHashMap<>();
+        Map<String, Product> products = new LinkedHashMap<>();
+        for (CartChange change : changes) {
+            String id = change.getProduct().getId();
+            products.putIfAbsent(id, change.getProduct());
+            int current = target.containsKey(id) ? target.get(id)
+                    : existing.containsKey(id) ? existing.get(id).getQuantity() : 0;
+
+            switch (change.getOp()) {
+                case ADD -> target.put(id, current + change.getQuantity());
+                case SET -> target.put(id, change.getQuantity());
+                case REMOVE -> target.put(id, 0);
+            }
+        }
+
+        Map<String, Integer> reservations = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> e : target.entrySet()) {
+            CartItem item = existing.get(e.getKey());
+            int difference = e.getValue() - (item != null ? item.getQuantity() : 0);
+            if (difference != 0) {
+                reservations.put(e.getKey(), difference);
+            }
+        }
+        inventory.reserveAll(reservations);
+
+        for (Map.Entry<String, Integer> e : target.entrySet()) {
+            CartItem item = existing.get(e.getKey());
+            int quantity = e.getValue();
+            if (quantity == 0) {
+                if (item != null) {
+                    items.remove(item);
+                    untrack(item);
+                }
+            } else if (item != null) {
+                if (quantity > item.getQuantity()) {
+                    // Units just reserved get a full reservation period, as addItem gives them
+                    item.refreshReservation();
+                }
+                item.setQuantity(quantity);
+                track(item);
+            } else {
+                CartItem added = new CartItem(products.get(e.getKey()), quantity);
+                items.add(added);
+                track(added);
+            }
         }
+        log.info("Applied {} cart changes ({} products reserved or released).", changes.size(), reservations.size());
     }
 
     public void cleanExpiredItems() {
@@ -88,9 +211,10 @@ public class ShoppingCart {
         for (CartItem item : items) {
             if (item.isReservationExpired()) {
                 expired.add(item);
+                untrack(item);
                 // Release reserved stock
                 inventory.releaseReservation(item.getProduct().getId(), item.getQuantity());
-                System.out.println("Removed expired item: " + item.getProduct().getName());
+                log.info("Removed expired item: {}", item.getProduct().getName());
             }
         }
         items.removeAll(expired);
@@ -134,13 +258,51 @@ public class ShoppingCart {
 
     public List<CartItem> getItems() {return items;}
 
+    // Empties the cart after checkout; the order has already taken its reserved units out of stock
     public void clearCart() {
-        for ( CartItem item : items) {
-            inventory.restock(item.getProduct().getId(), item.getQuantity());
+        for (CartItem item : items) {
+            untrack(item);
         }
         items.clear();
     }
 
+    // Give back all reserved stock and empty the cart (e.g. when a session expires)
+    public void releaseAll() {
+        for (CartItem item : items) {
+            inventory.releaseReservation(item.getProduct().getId(), item.getQuantity());
+            untrack(item);
+        }
+        items.clear();
+    }
+
+    // Called by ReservationExpiry with this cart locked: drops those of the given items that are
+    // still in the cart and still expired, in one batch of releases. Returns the items dropped.
+    List<CartItem> expireItems(List<CartItem> due) {
+        Map<String, Integer> releases = new LinkedHashMap<>();
+        List<CartItem> expired = new ArrayList<>();
+        for (CartItem item : due) {
+            // A refreshed item was rescheduled; one no longer here was already released
+            if (item.isReservationExpired() && items.contains(item)) {
+                expired.add(item);
+                releases.merge(item.getProduct().getId(), -item.getQuantity(), Integer::sum);
+            }
+        }
+        if (expired.isEmpty()) {
+            return expired;
+        }
+        try {
+            inventory.reserveAll(releases);
+        } catch (InsufficientStockException e) {
+            // Only releases; can't run short
+            throw new IllegalStateException(e);
+        }
+        items.removeAll(expired);
+        for (CartItem item : expired) {
+            log.info("Removed expired item: {}", item.getProduct().getName());
+        }
+        return expired;
+    }
+
     public InventoryManager getInventory() {
         return inventory;
     }
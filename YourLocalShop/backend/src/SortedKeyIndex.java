@@ -0,0 +1,326 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Products ordered by a numeric key (effective price, discount or stock),
+ * ties broken by id, kept up to date one product at a time.
+ *
+ * Entries live in a list of blocks, each holding up to BLOCK_SIZE keys in
+ * a double[] beside the products in a Product[]. Finding a key is a binary
+ * search over the blocks' last keys and then within one block; inserting
+ * or removing shifts at most one block, and a full block is split in two.
+ * Comparisons read the stored keys, so a lookup never recomputes a
+ * product's discounted price.
+ *
+ * The key a product is filed under is the caller's business: update()
+ * must be given the old key, which is how the entry is found again.
+ */
+public class SortedKeyIndex {
+    private static final int BLOCK_SIZE = 512;
+
+    private final ToDoubleFunction<Product> keyOf;
+    private final List<Block> blocks = new ArrayList<>();
+    private int size;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private static class Block {
+        final double[] keys = new double[BLOCK_SIZE];
+        final Product[] items = new Product[BLOCK_SIZE];
+        int count;
+
+        // Compares entry i with (key, id)
+        int compare(int i, double key, String id) {
+            int c = Double.compare(keys[i], key);
+            return c != 0 ? c : items[i].getId().compareTo(id);
+        }
+
+        // First entry >= (key, id), or > if strict
+        int search(double key, String id, boolean strict) {
+            int lo = 0;
+            int hi = count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = compare(mid, key, id);
+                if (c < 0 || (strict && c == 0)) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    /** A position between entries: before entry offset of block. */
+    static final class Position {
+        final int block;
+        final int offset;
+
+        Position(int block, int offset) {
+            this.block = block;
+            this.offset = offset;
+        }
+    }
+
+    public SortedKeyIndex(ToDoubleFunction<Product> keyOf) {
+        this.keyOf = keyOf;
+    }
+
+    public double keyOf(Product p) {
+        return keyOf.applyAsDouble(p);
+    }
+
+    public void rebuild(List<Product> products) {
+        Product[] sorted = products.toArray(new Product[0]);
+        double[] keys = new double[sorted.length];
+        Arrays.sort(sorted, Comparator.comparingDouble(keyOf).thenComparing(Product::getId));
+        for (int i = 0; i < sorted.length; i++) {
+            keys[i] = keyOf.applyAsDouble(sorted[i]);
+        }
+
+        List<Block> built = new ArrayList<>(sorted.length / (BLOCK_SIZE / 2) + 1);
+        // Blocks start half full so early inserts don't split
+        int fill = BLOCK_SIZE / 2;
+        for (int start = 0; start < sorted.length; start += fill) {
+            Block b = new Block();
+            b.count = Math.min(fill, sorted.length - start);
+            System.arraycopy(keys, start, b.keys, 0, b.count);
+            System.arraycopy(sorted, start, b.items, 0, b.count);
+            built.add(b);
+        }
+
+        lock.writeLock().lock();
+        try {
+            blocks.clear();
+            blocks.addAll(built);
+            size = sorted.length;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void add(Product p) {
+        lock.writeLock().lock();
+        try {
+            insert(keyOf.applyAsDouble(p), p);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Removes p, filed under key
+    public void remove(Product p, double key) {
+        lock.writeLock().lock();
+        try {
+            delete(key, p);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Moves p from oldKey to its current key
+    public void update(Product p, double oldKey) {
+        double newKey = keyOf.applyAsDouble(p);
+        if (Double.compare(oldKey, newKey) == 0) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (delete(oldKey, p)) {
+                insert(newKey, p);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void insert(double key, Product p) {
+        if (blocks.isEmpty()) {
+            blocks.add(new Block());
+        }
+        int bi = blockFor(key, p.getId());
+        Block b = blocks.get(bi);
+        if (b.count == BLOCK_SIZE) {
+            Block upper = split(bi);
+            if (b.count == 0 || b.compare(b.count - 1, key, p.getId()) < 0) {
+                b = upper;
+            }
+        }
+        int at = b.search(key, p.getId(), false);
+        System.arraycopy(b.keys, at, b.keys, at + 1, b.count - at);
+        System.arraycopy(b.items, at, b.items, at + 1, b.count - at);
+        b.keys[at] = key;
+        b.items[at] = p;
+        b.count++;
+        size++;
+    }
+
+    private boolean delete(double key, Product p) {
+        if (blocks.isEmpty()) {
+            return false;
+        }
+        int bi = blockFor(key, p.getId());
+        Block b = blocks.get(bi);
+        int at = b.search(key, p.getId(), false);
+        if (at == b.count || b.items[at] != p) {
+            return false;
+        }
+        System.arraycopy(b.keys, at + 1, b.keys, at, b.count - at - 1);
+        System.arraycopy(b.items, at + 1, b.items, at, b.count - at - 1);
+        b.count--;
+        b.items[b.count] = null;
+        size--;
+        if (b.count == 0 && blocks.size() > 1) {
+            blocks.remove(bi);
+        }
+        return true;
+    }
+
+    // Moves the upper half of block bi into a new block after it
+    private Block split(int bi) {
+        Block b = blocks.get(bi);
+        Block upper = new Block();
+        int half = b.count / 2;
+        upper.count = b.count - half;
+        System.arraycopy(b.keys, half, upper.keys, 0, upper.count);
+        System.arraycopy(b.items, half, upper.items, 0, upper.count);
+        Arrays.fill(b.items, half, b.count, null);
+        b.count = half;
+        blocks.add(bi + 1, upper);
+        return upper;
+    }
+
+    // The block that holds (key, id) or where it would go: the first whose last entry is >= it
+    private int blockFor(double key, String id) {
+        int lo = 0;
+        int hi = blocks.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            Block b = blocks.get(mid);
+            if (b.count > 0 && b.compare(b.count - 1, key, id) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Readers hold the read lock while using positions and entries
+
+    void readLock() { lock.readLock().lock(); }
+    void readUnlock() { lock.readLock().unlock(); }
+
+    int size() { return size; }
+
+    Position start() { return normalize(0, 0); }
+
+    Position end() {
+        return blocks.isEmpty() ? new Position(0, 0) : new Position(blocks.size() - 1, blocks.get(blocks.size() - 1).count);
+    }
+
+    // Positions at the end of a block are moved to the start of the next, so each gap has one position
+    private Position normalize(int block, int offset) {
+        while (block < blocks.size() - 1 && offset >= blocks.get(block).count) {
+            block++;
+            offset = 0;
+        }
+        return new Position(block, offset);
+    }
+
+    // Position of the first entry >= key (any id), or > key if strict
+    Position seek(double key, boolean strict) {
+        // Ids that sort before and after every real id
+        return seek(key, strict ? "\uffff" : "", strict);
+    }
+
+    // Position of the first entry >= (key, id), or > if strict
+    Position seek(double key, String id, boolean strict) {
+        if (blocks.isEmpty()) {
+            return start();
+        }
+        int lo = 0;
+        int hi = blocks.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            Block b = blocks.get(mid);
+            int c = b.count == 0 ? -1 : b.compare(b.count - 1, key, id);
+            if (c < 0 || (strict && c == 0)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo == blocks.size()) {
+            return end();
+        }
+        return normalize(lo, blocks.get(lo).search(key, id, strict));
+    }
+
+    // Entries between two positions
+    int count(Position from, Position to) {
+        if (compare(from, to) >= 0) {
+            return 0;
+        }
+        if (from.block == to.block) {
+            return to.offset - from.offset;
+        }
+        int n = blocks.get(from.block).count - from.offset;
+        for (int b = from.block + 1; b < to.block; b++) {
+            n += blocks.get(b).count;
+        }
+        return n + to.offset;
+    }
+
+    static int compare(Position a, Position b) {
+        return a.block != b.block ? Integer.compare(a.block, b.block) : Integer.compare(a.offset, b.offset);
+    }
+
+    /** Walks the entries between two positions, from either end. */
+    final class Walker {
+        private final Position from;
+        private final Position to;
+        // The gap the walker is in
+        private int block;
+        private int offset;
+
+        Walker(Position from, Position to, boolean backward) {
+            this.from = from;
+            this.to = to;
+            Position at = backward ? to : from;
+            this.block = at.block;
+            this.offset = at.offset;
+        }
+
+        // Entry after the gap, moving past it; null at the end of the range
+        Product next() {
+            while (block < blocks.size() - 1 && offset >= blocks.get(block).count) {
+                block++;
+                offset = 0;
+            }
+            if (block > to.block || (block == to.block && offset >= to.offset)) {
+                return null;
+            }
+            return blocks.get(block).items[offset++];
+        }
+
+        // Entry before the gap, moving past it; null at the start of the range
+        Product previous() {
+            while (offset == 0 && block > 0) {
+                block--;
+                offset = blocks.get(block).count;
+            }
+            int entry = offset - 1;
+            if (entry < 0 || block < from.block || (block == from.block && entry < from.offset)) {
+                return null;
+            }
+            offset = entry;
+            return blocks.get(block).items[entry];
+        }
+    }
+}
@@ -0,0 +1,172 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of reserve / commit / release with many threads on a few
+ * products, the way a flash sale hits the inventory.
+ *
+ * Runs the same workload twice: on StockTable's CAS operations, and on
+ * the same operations behind one lock, as InventoryManager's synchronized
+ * methods used to be. Each thread reserves one unit and then either
+ * commits it (buys) or releases it (abandons the cart), restocking when a
+ * product runs out. At the end every product's counts are checked against
+ * what the threads did, so a lost update shows up as a failure rather
+ * than as a fast number.
+ *
+ * Run with: java StockContentionBenchmark [threads] [products] [seconds]
+ * (defaults: available processors x 2, 4 products, 3 seconds per run)
+ */
+public class StockContentionBenchmark {
+    private static final int INITIAL_STOCK = 1000;
+    private static final int RESTOCK = 1000;
+
+    /** The inventory operations under test, by dense product index. */
+    private interface Stock {
+        boolean tryReserve(int index, int quantity);
+        void release(int index, int quantity);
+        int commit(int index, int quantity);
+        int restock(int index, int amount);
+        long get(int index);
+    }
+
+    private static class LockFree implements Stock {
+        private final StockTable table = new StockTable(16);
+
+        LockFree(int products) {
+            for (int i = 0; i < products; i++) {
+                table.initTotal(table.indexFor("P" + i), INITIAL_STOCK);
+            }
+        }
+
+        public boolean tryReserve(int index, int quantity) { return table.tryReserve(index, quantity); }
+        public void release(int index, int quantity) { table.release(index, quantity); }
+        public int commit(int index, int quantity) { return table.commit(index, quantity); }
+        public int restock(int index, int amount) { return table.restock(index, amount); }
+        public long get(int index) { return table.get(index); }
+    }
+
+    private static class Locked implements Stock {
+        private final int[] total;
+        private final int[] reserved;
+
+        Locked(int products) {
+            total = new int[products];
+            reserved = new int[products];
+            java.util.Arrays.fill(total, INITIAL_STOCK);
+        }
+
+        public synchronized boolean tryReserve(int index, int quantity) {
+            if (total[index] - reserved[index] < quantity) {
+                return false;
+            }
+            reserved[index] += quantity;
+            return true;
+        }
+
+        public synchronized void release(int index, int quantity) {
+            reserved[index] = Math.max(0, reserved[index] - quantity);
+        }
+
+        public synchronized int commit(int index, int quantity) {
+            if (total[index] < quantity) {
+                return -1;
+            }
+            total[index] -= quantity;
+            reserved[index] = Math.max(0, reserved[index] - quantity);
+            return total[index];
+        }
+
+        public synchronized int restock(int index, int amount) {
+            total[index] += amount;
+            return total[index];
+        }
+
+        public synchronized long get(int index) {
+            return StockTable.pack(total[index], reserved[index]);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2;
+        int products = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        long millis = (args.length > 2 ? Long.parseLong(args[2]) : 3) * 1000;
+        System.out.printf("%d threads on %d products, %d ms per run%n", threads, products, millis);
+
+        // The first pair warms up the JIT
+        run("warm-up", new LockFree(products), threads, products, millis / 3);
+        run("warm-up", new Locked(products), threads, products, millis / 3);
+        boolean ok = run("lock-free", new LockFree(products), threads, products, millis);
+        ok &= run("locked", new Locked(products), threads, products, millis);
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean run(String name, Stock stock, int threads, int products, long millis)
+            throws InterruptedException {
+        long[] committed = new long[products];
+        long[] restocked = new long[products];
+        AtomicLong operations = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        long deadline = System.nanoTime() + millis * 1_000_000;
+
+        Thread[] workers = new Thread[threads];
+        long[][] committedBy = new long[threads][products];
+        long[][] restockedBy = new long[threads][products];
+        for (int t = 0; t < threads; t++) {
+            long[] myCommitted = committedBy[t];
+            long[] myRestocked = restockedBy[t];
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long ops = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while ((ops & 255) != 0 || System.nanoTime() < deadline) {
+                    int p = random.nextInt(products);
+                    if (!stock.tryReserve(p, 1)) {
+                        stock.restock(p, RESTOCK);
+                        myRestocked[p] += RESTOCK;
+                    } else if (random.nextBoolean()) {
+                        if (stock.commit(p, 1) < 0) {
+                            throw new IllegalStateException("Reserved unit missing from product " + p);
+                        }
+                        myCommitted[p]++;
+                    } else {
+                        stock.release(p, 1);
+                    }
+                    ops++;
+                }
+                operations.addAndGet(ops);
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        for (int t = 0; t < threads; t++) {
+            for (int p = 0; p < products; p++) {
+                committed[p] += committedBy[t][p];
+                restocked[p] += restockedBy[t][p];
+            }
+        }
+        boolean ok = true;
+        for (int p = 0; p < products; p++) {
+            long cell = stock.get(p);
+            long expected = INITIAL_STOCK + restocked[p] - committed[p];
+            if (StockTable.totalOf(cell) != expected || StockTable.reservedOf(cell) != 0) {
+                System.out.printf("  product %d: total %d reserved %d, expected total %d reserved 0%n",
+                        p, StockTable.totalOf(cell), StockTable.reservedOf(cell), expected);
+                ok = false;
+            }
+        }
+        System.out.printf("%-10s %,15d ops/s  %s%n", name, operations.get() * 1000 / millis,
+                ok ? "counts consistent" : "COUNTS WRONG");
+        return ok;
+    }
+}
@@ -0,0 +1,288 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Total and reserved stock per product id, updated without locks.
+ *
+ * Each id is given a dense index the first time it is seen. Its total and
+ * reserved counts are packed into one long at that index (total in the
+ * high half, reserved in the low half), so both change together in a
+ * single compare-and-set: a reservation can never be checked against one
+ * total and applied against another, and every operation below takes
+ * effect at its successful CAS.
+ *
+ * Cells live in fixed-size pages that are never moved, so growing the
+ * table can't lose an update made to the old copy. The id-to-index lookup
+ * is an open-addressing table of ints read without locking; only adding a
+ * new id takes a lock, which happens once per product.
+ *
+ * A Listener, if set, is told the exact change each operation made once
+ * its CAS has succeeded (see InventoryJournal).
+ */
+public class StockTable {
+    /** Total of an id whose stock hasn't been set yet. */
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+
+    /** Told about every change, after it is made. Changes are deltas, so they add up in any order. */
+    public interface Listener {
+        // The id's total was set for the first time
+        void initialized(String id, int total);
+
+        void changed(String id, int totalDelta, int reservedDelta);
+    }
+
+    /** Receives each cell's counts, see forEach(). */
+    public interface CellVisitor {
+        void visit(String id, int total, int reserved);
+    }
+
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    // Pages of packed cells and of ids, by dense index; only ever appended to
+    private volatile long[][] cells = new long[0][];
+    private volatile String[][] ids = new String[0][];
+    // Index + 1 of the id hashed to each slot, 0 for empty; length is a power of two
+    private volatile int[] slots;
+    // Guarded by this
+    private int size;
+    private volatile Listener listener;
+
+    public StockTable(int expectedSize) {
+        slots = new int[tableSizeFor(Math.max(16, expectedSize))];
+    }
+
+    // At most half full, so probes stay short
+    private static int tableSizeFor(int entries) {
+        return Integer.highestOneBit(Math.max(entries, 8) * 2 - 1) << 1;
+    }
+
+    private static int hash(String id) {
+        int h = id.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    static long pack(int total, int reserved) {
+        return ((long) total << 32) | (reserved & 0xffffffffL);
+    }
+
+    static int totalOf(long cell) {
+        return (int) (cell >> 32);
+    }
+
+    static int reservedOf(long cell) {
+        return (int) cell;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    private String idOf(int index) {
+        return ids[index >>> PAGE_BITS][index & PAGE_MASK];
+    }
+
+    private void changed(int index, int totalDelta, int reservedDelta) {
+        Listener l = listener;
+        if (l != null && (totalDelta != 0 || reservedDelta != 0)) {
+            l.changed(idOf(index), totalDelta, reservedDelta);
+        }
+    }
+
+    // Visits every id whose total is set; counts are read one cell at a time
+    public void forEach(CellVisitor visitor) {
+        int n = size();
+        for (int i = 0; i < n; i++) {
+            long cell = get(i);
+            if (totalOf(cell) != UNKNOWN) {
+                visitor.visit(idOf(i), totalOf(cell), reservedOf(cell));
+            }
+        }
+    }
+
+    // Dense index of the id, or -1 if it has none yet
+    public int indexOf(String id) {
+        int[] table = slots;
+        int mask = table.length - 1;
+        for (int s = hash(id) & mask; ; s = (s + 1) & mask) {
+            int slot = (int) SLOTS.getAcquire(table, s);
+            if (slot == 0) {
+                return -1;
+            }
+            int i = slot - 1;
+            if (ids[i >>> PAGE_BITS][i & PAGE_MASK].equals(id)) {
+                return i;
+            }
+        }
+    }
+
+    // Dense index of the id, giving it one (total UNKNOWN, nothing reserved) if needed
+    public int indexFor(String id) {
+        int i = indexOf(id);
+        return i >= 0 ? i : add(id);
+    }
+
+    private synchronized int add(String id) {
+        // Another thread may have added it since indexOf() missed
+        int i = indexOf(id);
+        if (i >= 0) {
+            return i;
+        }
+        i = size;
+        int page = i >>> PAGE_BITS;
+        if (page == cells.length) {
+            long[][] morePages = Arrays.copyOf(cells, page + 1);
+            morePages[page] = new long[PAGE_SIZE];
+            String[][] moreIds = Arrays.copyOf(ids, page + 1);
+            moreIds[page] = new String[PAGE_SIZE];
+            // ids first: a reader that finds the new cells page also finds its ids
+            ids = moreIds;
+            cells = morePages;
+        }
+        ids[page][i & PAGE_MASK] = id;
+        CELLS.setRelease(cells[page], i & PAGE_MASK, pack(UNKNOWN, 0));
+        size++;
+
+        if (size * 2 > slots.length) {
+            // Readers keep using the old table, which still holds every older id
+            int[] table = new int[slots.length * 2];
+            int mask = table.length - 1;
+            for (int j = 0; j < size; j++) {
+                int s = hash(ids[j >>> PAGE_BITS][j & PAGE_MASK]) & mask;
+                while (table[s] != 0) {
+                    s = (s + 1) & mask;
+                }
+                table[s] = j + 1;
+            }
+            slots = table;
+        } else {
+            int[] table = slots;
+            int mask = table.length - 1;
+            int s = hash(id) & mask;
+            while (table[s] != 0) {
+                s = (s + 1) & mask;
+            }
+            // Published last, after the id and its cell
+            SLOTS.setRelease(table, s, i + 1);
+        }
+        return i;
+    }
+
+    public long get(int index) {
+        return (long) CELLS.getVolatile(cells[index >>> PAGE_BITS], index & PAGE_MASK);
+    }
+
+    public boolean compareAndSet(int index, long expected, long update) {
+        return CELLS.compareAndSet(cells[index >>> PAGE_BITS], index & PAGE_MASK, expected, update);
+    }
+
+    // Sets the total if it is still UNKNOWN; returns the total now in effect
+    public int initTotal(int index, int total) {
+        while (true) {
+            long cell = get(index);
+            if (totalOf(cell) != UNKNOWN) {
+                return totalOf(cell);
+            }
+            if (compareAndSet(index, cell, pack(total, reservedOf(cell)))) {
+                Listener l = listener;
+                if (l != null) {
+                    l.initialized(idOf(index), total);
+                }
+                return total;
+            }
+        }
+    }
+
+    // Sets the total, keeping reservations
+    public void setTotal(int index, int total) {
+        while (true) {
+            long cell = get(index);
+            if (compareAndSet(index, cell, pack(total, reservedOf(cell)))) {
+                Listener l = listener;
+                if (l != null && totalOf(cell) == UNKNOWN) {
+                    l.initialized(idOf(index), total);
+                } else {
+                    changed(index, total - totalOf(cell), 0);
+                }
+                return;
+            }
+        }
+    }
+
+    // Reserves quantity if that many are unreserved; false otherwise
+    public boolean tryReserve(int index, int quantity) {
+        while (true) {
+            long cell = get(index);
+            int total = totalOf(cell);
+            int reserved = reservedOf(cell);
+            if (total - reserved < quantity) {
+                return false;
+            }
+            if (compareAndSet(index, cell, pack(total, reserved + quantity))) {
+                changed(index, 0, quantity);
+                return true;
+            }
+        }
+    }
+
+    public void release(int index, int quantity) {
+        while (true) {
+            long cell = get(index);
+            int reserved = reservedOf(cell);
+            int left = Math.max(0, reserved - quantity);
+            if (compareAndSet(index, cell, pack(totalOf(cell), left))) {
+                changed(index, 0, left - reserved);
+                return;
+            }
+        }
+    }
+
+    // Takes quantity out of the total and its reservation; returns the new total, or -1 if short
+    public int commit(int index, int quantity) {
+        while (true) {
+            long cell = get(index);
+            int total = totalOf(cell);
+            if (total < quantity) {
+                return -1;
+            }
+            int reserved = reservedOf(cell);
+            int left = Math.max(0, reserved - quantity);
+            if (compareAndSet(index, cell, pack(total - quantity, left))) {
+                changed(index, -quantity, left - reserved);
+                return total - quantity;
+            }
+        }
+    }
+
+    // Undoes commit() of units that were reserved: puts them back in the total and the reservation
+    public void putBack(int index, int quantity) {
+        while (true) {
+            long cell = get(index);
+            if (compareAndSet(index, cell, pack(totalOf(cell) + quantity, reservedOf(cell) + quantity))) {
+                changed(index, quantity, quantity);
+                return;
+            }
+        }
+    }
+
+    // Adds to the total; returns the new total
+    public int restock(int index, int amount) {
+        while (true) {
+            long cell = get(index);
+            int total = totalOf(cell) + amount;
+            if (compareAndSet(index, cell, pack(total, reservedOf(cell)))) {
+                changed(index, amount, 0);
+                return total;
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * Type-ahead suggestions for product names.
+ *
+ * A radix trie over the lower-cased name, starting at every word, so "mi"
+ * and "cream mi" both reach "Full Cream Milk". Chains of single-child
+ * nodes are merged into one edge, and the finished trie is packed into
+ * flat arrays: edge text in one char pool, each node's children next to
+ * each other sorted by first character. Every node stores its best K
+ * products for each ranking, so a lookup walks the prefix and copies one
+ * precomputed list without visiting the subtree below. Products are
+ * stored in those lists by their position in each ranking, so building
+ * them only sorts small int arrays.
+ *
+ * Instances are immutable. ProductCatalog builds a new one when the
+ * catalog or sales figures have changed.
+ */
+public class SuggestIndex {
+    public static final int MAX_K = 10;
+    // Longer names are indexed up to this many characters from each word
+    private static final int MAX_KEY_LENGTH = 32;
+
+    public enum Rank {
+        POPULARITY, STOCK;
+
+        public static Rank parse(String value) {
+            try {
+                return Rank.valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown rank: " + value);
+            }
+        }
+    }
+
+    /** One suggestion. */
+    public static class Suggestion {
+        private final String id;
+        private final String name;
+        private final int unitsSold;
+        private final int stock;
+
+        Suggestion(String id, String name, int unitsSold, int stock) {
+            this.id = id;
+            this.name = name;
+            this.unitsSold = unitsSold;
+            this.stock = stock;
+        }
+
+        public String getId() { return id; }
+        public String getName() { return name; }
+        public int getUnitsSold() { return unitsSold; }
+        public int getStock() { return stock; }
+    }
+
+    private final long version;
+    private final Suggestion[] products;
+    // Product index at each ranking position
+    private final int[] popularityOrder;
+    private final int[] stockOrder;
+
+    // Packed trie; node 0 is the root and has an empty edge
+    private final char[] edgeChars;
+    private final int[] edgeStart;
+    private final int[] edgeLength;
+    private final int[] firstChild;
+    private final int[] childCount;
+    // Top ranking positions of node n are entries [n * MAX_K, n * MAX_K + topCount[n]) of each pool
+    private final int[] byPopularity;
+    private final int[] byStock;
+    private final byte[] topCount;
+
+    // Trie node used only while building
+    private static class BuildNode {
+        final String edge;
+        final List<BuildNode> children = new ArrayList<>();
+        int[] byPopularity;
+        int[] byStock;
+
+        BuildNode(String edge) {
+            this.edge = edge;
+        }
+    }
+
+    private SuggestIndex(long version, Suggestion[] products, int[] popularityOrder, int[] stockOrder,
+                         int nodeCount, int edgeChars) {
+        this.version = version;
+        this.products = products;
+        this.popularityOrder = popularityOrder;
+        this.stockOrder = stockOrder;
+        this.edgeChars = new char[edgeChars];
+        this.edgeStart = new int[nodeCount];
+        this.edgeLength = new int[nodeCount];
+        this.firstChild = new int[nodeCount];
+        this.childCount = new int[nodeCount];
+        this.byPopularity = new int[nodeCount * MAX_K];
+        this.byStock = new int[nodeCount * MAX_K];
+        this.topCount = new byte[nodeCount];
+    }
+
+    public static SuggestIndex build(long version, List<Product> catalog, Map<String, Integer> unitsSold) {
+        Suggestion[] products = new Suggestion[catalog.size()];
+        List<String> keys = new ArrayList<>();
+        List<Integer> owners = new ArrayList<>();
+
+        for (int i = 0; i < products.length; i++) {
+            Product p = catalog.get(i);
+            products[i] = new Suggestion(p.getId(), p.getName(),
+                    unitsSold.getOrDefault(p.getId(), 0), p.getQuantity());
+
+            String name = p.getName() == null ? "" : p.getName().toLowerCase();
+            for (int start = 0; start < name.length(); start++) {
+                boolean wordStart = Character.isLetterOrDigit(name.charAt(start))
+                        && (start == 0 || !Character.isLetterOrDigit(name.charAt(start - 1)));
+                if (wordStart) {
+                    keys.add(name.substring(start, Math.min(name.length(), start + MAX_KEY_LENGTH)));
+                    owners.add(i);
+                }
+            }
+        }
+
+        // Sorting the keys lets each subtree be built from a contiguous range
+        Integer[] order = new Integer[keys.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparing(keys::get));
+        String[] sortedKeys = new String[order.length];
+        int[] sortedOwners = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedKeys[i] = keys.get(order[i]);
+            sortedOwners[i] = owners.get(order[i]);
+        }
+
+        int[] popularityOrder = rankOrder(products, p -> p.unitsSold);
+        int[] stockOrder = rankOrder(products, p -> p.stock);
+        int[] popularityRank = inverse(popularityOrder);
+        int[] stockRank = inverse(stockOrder);
+
+        int[] counts = new int[2]; // nodes, edge chars
+        BuildNode root = buildNode("", sortedKeys, sortedOwners, 0, sortedKeys.length, 0,
+                popularityRank, stockRank, counts);
+
+        SuggestIndex index = new SuggestIndex(version, products, popularityOrder, stockOrder, counts[0], counts[1]);
+        index.pack(root);
+        return index;
+    }
+
+    // Product indexes sorted by score, highest first, ties in catalog order.
+    // Sorts (score, index) packed into longs to avoid boxing.
+    private static int[] rankOrder(Suggestion[] products, ToIntFunction<Suggestion> score) {
+        long[] packed = new long[products.length];
+        for (int i = 0; i < packed.length; i++) {
+            packed[i] = ((long) -score.applyAsInt(products[i]) << 32) | i;
+        }
+        Arrays.sort(packed);
+        int[] result = new int[packed.length];
+        for (int i = 0; i < result.length; i++) result[i] = (int) packed[i];
+        return result;
+    }
+
+    private static int[] inverse(int[] order) {
+        int[] rank = new int[order.length];
+        for (int i = 0; i < order.length; i++) rank[order[i]] = i;
+        return rank;
+    }
+
+    // Builds the subtree for keys [lo, hi), which all share their first `depth` characters
+    private static BuildNode buildNode(String edge, String[] keys, int[] owners, int lo, int hi, int depth,
+                                       int[] popularityRank, int[] stockRank, int[] counts) {
+        BuildNode node = new BuildNode(edge);
+        counts[0]++;
+        counts[1] += edge.length();
+
+        int i = lo;
+        // Keys ending here sort first
+        int endsFrom = i;
+        while (i < hi && keys[i].length() == depth) i++;
+        int endsTo = i;
+
+        while (i < hi) {
+            char c = keys[i].charAt(depth);
+            int end = i + 1;
+            while (end < hi && keys[end].charAt(depth) == c) end++;
+
+            // The group's shared prefix is the common prefix of its first and last key
+            String first = keys[i];
+            String last = keys[end - 1];
+            int shared = depth + 1;
+            while (shared < first.length() && shared < last.length() && first.charAt(shared) == last.charAt(shared)) {
+                shared++;
+            }
+            BuildNode child = buildNode(first.substring(depth, shared), keys, owners, i, end, shared,
+                    popularityRank, stockRank, counts);
+            node.children.add(child);
+            i = end;
+        }
+
+        // Candidates: products whose key ends here plus each child's best
+        int total = endsTo - endsFrom;
+        for (BuildNode child : node.children) total += child.byPopularity.length;
+        int[] popularity = new int[total];
+        int[] stock = new int[total];
+        int n = 0;
+        for (int k = endsFrom; k < endsTo; k++, n++) {
+            popularity[n] = popularityRank[owners[k]];
+            stock[n] = stockRank[owners[k]];
+        }
+        for (BuildNode child : node.children) {
+            System.arraycopy(child.byPopularity, 0, popularity, n, child.byPopularity.length);
+            System.arraycopy(child.byStock, 0, stock, n, child.byStock.length);
+            n += child.byPopularity.length;
+        }
+        node.byPopularity = top(popularity);
+        node.byStock = top(stock);
+        return node;
+    }
+
+    // The K best (lowest) distinct ranking positions
+    private static int[] top(int[] ranks) {
+        Arrays.sort(ranks);
+        int unique = 0;
+        for (int i = 0; i < ranks.length && unique < MAX_K; i++) {
+            if (unique == 0 || ranks[unique - 1] != ranks[i]) ranks[unique++] = ranks[i];
+        }
+        return Arrays.copyOf(ranks, unique);
+    }
+
+    // Lays nodes out breadth-first so siblings are contiguous
+    private void pack(BuildNode root) {
+        BuildNode[] queue = new BuildNode[edgeStart.length];
+        queue[0] = root;
+        int next = 1;
+        int chars = 0;
+        for (int n = 0; n < next; n++) {
+            BuildNode node = queue[n];
+            queue[n] = null;
+
+            edgeStart[n] = chars;
+            edgeLength[n] = node.edge.length();
+            node.edge.getChars(0, node.edge.length(), edgeChars, chars);
+            chars += node.edge.length();
+
+            // Both rankings draw from the same candidates, so the counts match
+            topCount[n] = (byte) node.byPopularity.length;
+            System.arraycopy(node.byPopularity, 0, byPopularity, n * MAX_K, node.byPopularity.length);
+            System.arraycopy(node.byStock, 0, byStock, n * MAX_K, node.byStock.length);
+
+            firstChild[n] = next;
+            childCount[n] = node.children.size();
+            for (BuildNode child : node.children) {
+                queue[next++] = child;
+            }
+        }
+    }
+
+    /** Up to limit (at most MAX_K) products with a word in their name starting with prefix. */
+    public List<Suggestion> suggest(String prefix, int limit, Rank rank) {
+        String key = prefix.toLowerCase();
+        int node = 0;
+        int i = 0;
+        while (i < key.length()) {
+            node = child(node, key.charAt(i));
+            if (node < 0) {
+                return List.of();
+            }
+            // Follow the edge; the prefix may end part way along it
+            int start = edgeStart[node];
+            int length = edgeLength[node];
+            for (int j = 0; j < length && i < key.length(); j++, i++) {
+                if (edgeChars[start + j] != key.charAt(i)) {
+                    return List.of();
+                }
+            }
+        }
+
+        int[] pool = rank == Rank.STOCK ? byStock : byPopularity;
+        int[] order = rank == Rank.STOCK ? stockOrder : popularityOrder;
+        int count = Math.min(Math.min(limit, MAX_K), topCount[node]);
+        List<Suggestion> results = new ArrayList<>(count);
+        for (int k = 0; k < count; k++) {
+            results.add(products[order[pool[node * MAX_K + k]]]);
+        }
+        return results;
+    }
+
+    // Binary search of the node's children by the first character of their edge
+    private int child(int node, char c) {
+        int lo = firstChild[node];
+        int hi = lo + childCount[node] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            char label = edgeChars[edgeStart[mid]];
+            if (label < c) {
+                lo = mid + 1;
+            } else if (label > c) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getNodeCount() {
+        return edgeStart.length;
+    }
+}
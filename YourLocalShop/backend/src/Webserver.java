@@ -3,320 +3,620 @@ import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpExchange;
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonWriter;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
-import java.util.ArrayList;
 import java.time.LocalDateTime;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 
 import exceptions.InsufficientStockException;
 import exceptions.PaymentProcessException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 public class Webserver {
     private static final int PORT = 8080;
+    private static final Logger log = LoggerFactory.getLogger(Webserver.class);
     private static final Gson gson = new GsonBuilder()
             .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
             .create();
     private static ProductCatalog catalog;
     private static InventoryManager inventory;
+    private static RequestExecutor requestExecutor;
+    private static volatile CatalogSnapshot catalogSnapshot;
+    private static final ResponseCompressor compressor = ResponseCompressor.fromSystemProperties();
+    private static final RequestMetrics metrics = new RequestMetrics();
 
-    // Store carts per session
-    private static Map<String, ShoppingCart> sessionCarts = new HashMap<>();
+    // Store carts per session token
+    private static SessionStore sessions;
+    private static ReservationExpiry reservationExpiry;
 
     public static void start(ProductCatalog cat, InventoryManager inv) throws IOException {
         catalog = cat;
         inventory = inv;
 
+        requestExecutor = RequestExecutor.fromSystemProperties();
+        reservationExpiry = ReservationExpiry.fromSystemProperties();
+        sessions = SessionStore.fromSystemProperties(inv, reservationExpiry);
+
         HttpServer server = HttpServer.create(new InetSocketAddress(PORT), 0);
 
         // Enable CORS for all endpoints
-        server.createContext("/api/products", new ProductHandler());
-        server.createContext("/api/cart", new CartHandler());
-        server.createContext("/api/orders", new OrderHandler());
+        // Handlers are wrapped so slow requests don't block the dispatcher thread
+        HttpHandler busy = exchange -> {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendJsonResponse(exchange, 503, Map.of("error", "Server busy, please retry"));
+        };
+        server.createContext("/api", requestExecutor.wrap(metrics.wrap(buildRouter()), busy));
 
         server.setExecutor(null);
         server.start();
 
         System.out.println("✓ Web server started on http://localhost:" + PORT);
+        System.out.println("✓ Requests run on " + requestExecutor);
         System.out.println("✓ Frontend can now connect to the API");
     }
 
+    // All API routes, compiled once at startup
+    private static Router buildRouter() {
+        ProductHandler products = new ProductHandler();
+        CartHandler carts = new CartHandler();
+        OrderHandler orders = new OrderHandler();
+        MetricsHandler metricsHandler = new MetricsHandler();
+
+        Router router = new Router(
+                (exchange, status, message) -> sendJsonResponse(exchange, status, Map.of("error", message)),
+                exchange -> {
+                    enableCORS(exchange);
+                    exchange.sendResponseHeaders(204, -1);
+                });
+
+        router.get("/api/products", products::list)
+                .get("/api/products/facets", products::facets)
+                .get("/api/products/search", products::search)
+                .get("/api/products/suggest", products::suggest)
+                .get("/api/products/{id}", products::getById);
+
+        router.get("/api/cart", carts::get)
+                .post("/api/cart", carts::add)
+                .post("/api/cart/batch", carts::batch)
+                .delete("/api/cart/{productId}", carts::remove);
+
+        router.get("/api/orders/history/{email}", orders::history)
+                .post("/api/orders", orders::checkout);
+
+        router.get("/api/metrics", metricsHandler::scrape);
+
+        log.debug("Routes: {}", router.describe());
+        return router;
+    }
+
+    public static RequestExecutor getRequestExecutor() {
+        return requestExecutor;
+    }
+
+    public static RequestMetrics getMetrics() {
+        return metrics;
+    }
+
+    public static SessionStore getSessions() {
+        return sessions;
+    }
+
     // Helper method to enable CORS
     private static void enableCORS(HttpExchange exchange) {
         exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
         exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "GET, POST, DELETE, OPTIONS");
-        exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type");
+        exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type, If-None-Match, " + SessionStore.HEADER);
+        exchange.getResponseHeaders().add("Access-Control-Expose-Headers", "ETag, " + SessionStore.HEADER);
         exchange.getResponseHeaders().add("Content-Type", "application/json");
     }
 
     // Helper method to send JSON response
     private static void sendJsonResponse(HttpExchange exchange, int statusCode, Object data) throws IOException {
-        enableCORS(exchange);
         String jsonResponse = gson.toJson(data);
-        byte[] bytes = jsonResponse.getBytes(StandardCharsets.UTF_8);
-        exchange.sendResponseHeaders(statusCode, bytes.length);
+        sendBytesResponse(exchange, statusCode, jsonResponse.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Helper method to send already serialized JSON, compressed if the client accepts it
+    private static void sendBytesResponse(HttpExchange exchange, int statusCode, byte[] bytes) throws IOException {
+        String encoding = compressor.negotiate(exchange.getRequestHeaders().getFirst("Accept-Encoding"), bytes.length);
+        byte[] body = encoding == null ? bytes : compressor.compress(bytes, encoding);
+        writeBody(exchange, statusCode, body, encoding);
+    }
+
+    // Sends the catalog snapshot, reusing its cached compressed copy
+    private static void sendSnapshotResponse(HttpExchange exchange, CatalogSnapshot snapshot) throws IOException {
+        String encoding = negotiateEncoding(exchange, snapshot);
+        exchange.getResponseHeaders().set("ETag", snapshot.getEtag(encoding));
+        writeBody(exchange, 200, snapshot.getBody(encoding, compressor), encoding);
+    }
+
+    private static String negotiateEncoding(HttpExchange exchange, CatalogSnapshot snapshot) {
+        return compressor.negotiate(exchange.getRequestHeaders().getFirst("Accept-Encoding"), snapshot.getJson().length);
+    }
+
+    private static void writeBody(HttpExchange exchange, int statusCode, byte[] body, String encoding) throws IOException {
+        writeBody(exchange, statusCode, body, encoding, null);
+    }
+
+    // contentType replaces the default application/json when given
+    private static void writeBody(HttpExchange exchange, int statusCode, byte[] body, String encoding,
+                                  String contentType) throws IOException {
+        enableCORS(exchange);
+        if (contentType != null) {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+        }
+        exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+        if (encoding != null) {
+            exchange.getResponseHeaders().set("Content-Encoding", encoding);
+        }
+        exchange.sendResponseHeaders(statusCode, body.length);
         try (OutputStream os = exchange.getResponseBody()) {
-            os.write(bytes);
+            os.write(body);
         }
     }
 
-    // Helper method to get session cart
-    private static ShoppingCart getSessionCart(HttpExchange exchange) {
-        String sessionId = exchange.getRemoteAddress().toString();
-        System.out.println("Session ID: " + sessionId);
-        return sessionCarts.computeIfAbsent(sessionId, k -> new ShoppingCart(inventory));
+    public static ResponseCompressor getCompressor() {
+        return compressor;
     }
 
-    static class ProductHandler implements HttpHandler {
-        @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                enableCORS(exchange);
-                exchange.sendResponseHeaders(204, -1);
-                return;
-            }
+    // Writes a JSON body straight to a stream, one value at a time
+    interface JsonBody {
+        void write(JsonWriter out) throws IOException;
+    }
 
-            String path = exchange.getRequestURI().getPath();
-            String query = exchange.getRequestURI().getQuery();
+    private static JsonWriter newJsonWriter(OutputStream os) {
+        JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8)));
+        writer.setSerializeNulls(false); // same as gson.toJson
+        return writer;
+    }
 
-            System.out.println("Product request: " + exchange.getRequestMethod() + " " + path + (query != null ? "?" + query : ""));
+    /**
+     * Streams a JSON body using chunked transfer encoding, so large results
+     * are never held in memory as a whole String or byte[].
+     * The size isn't known up front, so it is compressed whenever the client accepts it.
+     */
+    private static void sendStreamingJsonResponse(HttpExchange exchange, int statusCode, JsonBody body) throws IOException {
+        String encoding = compressor.negotiate(exchange.getRequestHeaders().getFirst("Accept-Encoding"), Integer.MAX_VALUE);
+        enableCORS(exchange);
+        exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+        if (encoding != null) {
+            exchange.getResponseHeaders().set("Content-Encoding", encoding);
+        }
+        exchange.sendResponseHeaders(statusCode, 0);
+        try (JsonWriter writer = newJsonWriter(compressor.wrap(exchange.getResponseBody(), encoding))) {
+            body.write(writer);
+        }
+    }
 
-            if ("GET".equals(exchange.getRequestMethod())) {
-                if (path.equals("/api/products")) {
-                    // Get all products or search by category
-                    if (query != null && query.startsWith("category=")) {
-                        String category = query.substring(9);
-                        System.out.println("Filtering by category: " + category);
-                        sendJsonResponse(exchange, 200, catalog.searchByCategory(category));
-                    } else {
-                        System.out.println("Returning all products");
-                        // Create enriched product list with discount info
-                        List<Map<String, Object>> enrichedProducts = new ArrayList<>();
-                        for (Product p : catalog.getAllProducts()) {
-                            Map<String, Object> productData = new HashMap<>();
-                            productData.put("id", p.getId());
-                            productData.put("name", p.getName());
-                            productData.put("category", p.getCategory());
-                            productData.put("description", p.getDescription());
-                            productData.put("price", p.getPrice());
-                            productData.put("quantity", p.getQuantity());
-                            productData.put("available", p.isAvailable());
-
-                            // Add discount info if applicable
-                            if (p.getDiscountPercentage() > 0) {
-                                productData.put("discountPercentage", p.getDiscountPercentage());
-                                productData.put("discountedPrice", p.getDiscountedPrice());
-                            }
+    // Serializes a JSON body into a single byte array (for small or cached bodies)
+    private static byte[] toJsonBytes(JsonBody body) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (JsonWriter writer = newJsonWriter(buffer)) {
+            body.write(writer);
+        }
+        return buffer.toByteArray();
+    }
 
-                            enrichedProducts.add(productData);
-                        }
-                        sendJsonResponse(exchange, 200, enrichedProducts);
-                    }
-                } else {
-                    // Get single product by ID
-                    String[] parts = path.split("/");
-                    if (parts.length > 3) {
-                        String productId = parts[3];
-                        System.out.println("Getting product: " + productId);
-                        Product product = catalog.getProductById(productId);
-                        if (product != null) {
-                            // Create enriched product data
-                            Map<String, Object> productData = new HashMap<>();
-                            productData.put("id", product.getId());
-                            productData.put("name", product.getName());
-                            productData.put("category", product.getCategory());
-                            productData.put("description", product.getDescription());
-                            productData.put("price", product.getPrice());
-                            productData.put("quantity", product.getQuantity());
-                            productData.put("available", product.isAvailable());
-
-                            if (product.getDiscountPercentage() > 0) {
-                                productData.put("discountPercentage", product.getDiscountPercentage());
-                                productData.put("discountedPrice", product.getDiscountedPrice());
-                            }
+    // Product fields sent to the frontend, including discount info if applicable
+    private static void writeProductData(JsonWriter out, Product p) throws IOException {
+        out.beginObject();
+        out.name("id").value(p.getId());
+        out.name("name").value(p.getName());
+        out.name("category").value(p.getCategory());
+        out.name("description").value(p.getDescription());
+        out.name("price").value(p.getPrice());
+        out.name("quantity").value(p.getQuantity());
+        out.name("available").value(p.isAvailable());
+
+        if (p.getDiscountPercentage() > 0) {
+            out.name("discountPercentage").value(p.getDiscountPercentage());
+            out.name("discountedPrice").value(p.getDiscountedPrice());
+        }
+        out.endObject();
+    }
 
-                            sendJsonResponse(exchange, 200, productData);
-                        } else {
-                            sendJsonResponse(exchange, 404, Map.of("error", "Product not found"));
-                        }
+    // Returns the serialized product list, rebuilding it only if the catalog changed
+    private static CatalogSnapshot getCatalogSnapshot() throws IOException {
+        CatalogSnapshot snapshot = catalogSnapshot;
+        if (snapshot != null && snapshot.getVersion() == catalog.getVersion()) {
+            return snapshot;
+        }
+        synchronized (Webserver.class) {
+            // Version and products from the same state, so the cache key matches the body
+            CatalogState state = catalog.getState();
+            long version = state.getVersion();
+            if (catalogSnapshot == null || catalogSnapshot.getVersion() != version) {
+                // Written straight into the byte buffer, no intermediate maps or String
+                byte[] json = toJsonBytes(out -> {
+                    out.beginArray();
+                    for (Product p : state.getProducts()) {
+                        writeProductData(out, p);
                     }
-                }
+                    out.endArray();
+                });
+                catalogSnapshot = new CatalogSnapshot(version, json);
+                log.debug("Rebuilt catalog snapshot (version {})", version);
             }
+            return catalogSnapshot;
         }
     }
 
+    // Helper method to get session cart
+    private static ShoppingCart getSessionCart(HttpExchange exchange) {
+        return sessions.getCart(exchange);
+    }
+
+    static class ProductHandler {
+        // Any of these turns the plain product list into a paged result
+        private static final List<String> PAGING_PARAMS =
+                List.of("limit", "cursor", "sort", "order", "minPrice", "maxPrice", "inStock", "discounted");
+
+        // GET /api/products (optionally ?category=, or paged with the params above)
+        void list(HttpExchange exchange, Router.Request request) throws IOException {
+            // A bounded catalog isn't held in memory, so it is only ever served a page at a time
+            if (catalog.isBounded()) {
+                listPage(exchange, request);
+                return;
+            }
+            for (String param : PAGING_PARAMS) {
+                if (request.query(param) != null) {
+                    listPage(exchange, request);
+                    return;
+                }
+            }
 
-    static class CartHandler implements HttpHandler {
-        @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
+            String category = request.query("category");
+            if (category != null) {
+                log.debug("Filtering by category: {}", category);
+                List<Product> results = catalog.searchByCategory(category);
+                sendStreamingJsonResponse(exchange, 200, out -> {
+                    out.beginArray();
+                    for (Product p : results) {
+                        gson.toJson(p, Product.class, out);
+                    }
+                    out.endArray();
+                });
+                return;
+            }
+
+            log.debug("Returning all products");
+            CatalogSnapshot snapshot = getCatalogSnapshot();
+            if (snapshot.matches(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
                 enableCORS(exchange);
-                exchange.sendResponseHeaders(204, -1);
+                exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+                exchange.getResponseHeaders().set("ETag", snapshot.getEtag(negotiateEncoding(exchange, snapshot)));
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+            } else {
+                exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+                sendSnapshotResponse(exchange, snapshot);
+            }
+        }
+
+        // GET /api/products/search?q=&limit=
+        void search(HttpExchange exchange, Router.Request request) throws IOException {
+            String q = request.query("q");
+            if (q == null || q.isBlank()) {
+                sendJsonResponse(exchange, 400, Map.of("error", "Query parameter 'q' is required"));
                 return;
             }
+            int limit = Math.min(request.queryInt("limit", ProductQuery.DEFAULT_LIMIT), ProductQuery.MAX_LIMIT);
+
+            long start = System.nanoTime();
+            SearchIndex.Result result = catalog.search(q, limit);
+            log.debug("Search '{}' matched {} products in {} us", q, result.getTotal(), (System.nanoTime() - start) / 1000);
+
+            sendStreamingJsonResponse(exchange, 200, out -> {
+                out.beginObject();
+                out.name("query").value(q);
+                out.name("total").value(result.getTotal());
+                out.name("items").beginArray();
+                for (Product p : result.getItems()) {
+                    writeProductData(out, p);
+                }
+                out.endArray();
+                out.endObject();
+            });
+        }
 
-            ShoppingCart cart = getSessionCart(exchange);
-            String method = exchange.getRequestMethod();
-            String path = exchange.getRequestURI().getPath();
+        // GET /api/products/suggest?prefix=&limit=&rank=popularity|stock
+        void suggest(HttpExchange exchange, Router.Request request) throws IOException {
+            String prefix = request.query("prefix", "").trim();
+            int limit = request.queryInt("limit", SuggestIndex.MAX_K);
+            if (limit < 1) {
+                sendJsonResponse(exchange, 400, Map.of("error", "limit must be at least 1."));
+                return;
+            }
+            // The index keeps only the top MAX_K per prefix
+            limit = Math.min(limit, SuggestIndex.MAX_K);
+            SuggestIndex.Rank rank = SuggestIndex.Rank.parse(request.query("rank", "popularity"));
+
+            List<SuggestIndex.Suggestion> suggestions = prefix.isEmpty()
+                    ? List.of()
+                    : catalog.suggest(prefix, limit, rank);
+            sendJsonResponse(exchange, 200, Map.of("prefix", prefix, "items", suggestions));
+        }
+
+        // GET /api/products/facets
+        void facets(HttpExchange exchange, Router.Request request) throws IOException {
+            List<CategoryIndex.Facet> facets = catalog.getCategoryFacets();
+            int total = 0;
+            for (CategoryIndex.Facet facet : facets) {
+                total += facet.getCount();
+            }
+            sendJsonResponse(exchange, 200, Map.of("categories", facets, "total", total));
+        }
+
+        // GET /api/products?limit=&cursor=&sort=&order=&category=&minPrice=&maxPrice=&inStock=&discounted=
+        private void listPage(HttpExchange exchange, Router.Request request) throws IOException {
+            ProductQuery query = new ProductQuery()
+                    .setCategory(request.query("category"))
+                    .setPriceRange(request.queryDouble("minPrice"), request.queryDouble("maxPrice"))
+                    .setInStockOnly(request.queryBoolean("inStock"))
+                    .setDiscountedOnly(request.queryBoolean("discounted"))
+                    .setSort(ProductQuery.SortField.parse(request.query("sort", "name")),
+                            "desc".equalsIgnoreCase(request.query("order")))
+                    .setLimit(request.queryInt("limit", ProductQuery.DEFAULT_LIMIT))
+                    .setCursor(request.query("cursor"));
+
+            ProductQuery.Page page = catalog.query(query);
+            log.debug("Product page: {} of {} products", page.getItems().size(), page.getTotal());
+
+            sendStreamingJsonResponse(exchange, 200, out -> {
+                out.beginObject();
+                out.name("items").beginArray();
+                for (Product p : page.getItems()) {
+                    writeProductData(out, p);
+                }
+                out.endArray();
+                out.name("total").value(page.getTotal());
+                out.name("nextCursor").value(page.getNextCursor());
+                out.endObject();
+            });
+        }
+
+        // GET /api/products/{id}
+        void getById(HttpExchange exchange, Router.Request request) throws IOException {
+            String productId = request.path("id");
+            log.debug("Getting product: {}", productId);
+            Product product = catalog.getProductById(productId);
+            if (product != null) {
+                sendBytesResponse(exchange, 200, toJsonBytes(out -> writeProductData(out, product)));
+            } else {
+                sendJsonResponse(exchange, 404, Map.of("error", "Product not found"));
+            }
+        }
+    }
 
-            System.out.println("Cart request: " + method + " " + path);
 
-            if ("GET".equals(method)) {
-                System.out.println("Returning cart with " + cart.getItems().size() + " items");
+    static class CartHandler {
+        // GET /api/cart
+        void get(HttpExchange exchange, Router.Request request) throws IOException {
+            ShoppingCart cart = getSessionCart(exchange);
+            // One request at a time per cart; the session sweeper also locks it
+            synchronized (cart) {
+                log.debug("Returning cart with {} items", cart.getItems().size());
                 sendJsonResponse(exchange, 200, cart.getItems());
+            }
+        }
 
-            } else if ("POST".equals(method)) {
-                String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
-                System.out.println("Cart POST body: " + body);
+        // POST /api/cart {productId, quantity}
+        void add(HttpExchange exchange, Router.Request request) throws IOException {
+            ShoppingCart cart = getSessionCart(exchange);
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            log.debug("Cart POST body: {}", body);
 
+            synchronized (cart) {
                 try {
-                    Map<String, Object> request = gson.fromJson(body, Map.class);
-                    String productId = (String) request.get("productId");
-                    int quantity = ((Double) request.get("quantity")).intValue();
+                    Map<String, Object> data = gson.fromJson(body, Map.class);
+                    String productId = (String) data.get("productId");
+                    int quantity = ((Double) data.get("quantity")).intValue();
 
-                    System.out.println("Adding to cart: " + productId + " x " + quantity);
+                    log.debug("Adding to cart: {} x {}", productId, quantity);
 
                     Product product = catalog.getProductById(productId);
                     if (product != null) {
                         cart.addItem(product, quantity);
-                        System.out.println("Cart now has " + cart.getItems().size() + " items");
+                        log.debug("Cart now has {} items", cart.getItems().size());
                         sendJsonResponse(exchange, 200, cart.getItems());
                     } else {
-                        System.out.println("Product not found: " + productId);
+                        log.debug("Product not found: {}", productId);
                         sendJsonResponse(exchange, 404, Map.of("error", "Product not found"));
                     }
                 } catch (Exception e) {
-                    System.err.println("Error adding to cart: " + e.getMessage());
-                    e.printStackTrace();
-                    sendJsonResponse(exchange, 400, Map.of("error", e.getMessage()));
+                    log.warn("Error adding to cart: {}", e.getMessage(), e);
+                    sendJsonResponse(exchange, 400, Map.of("error", String.valueOf(e.getMessage())));
                 }
+            }
+        }
+
+        // POST /api/cart/batch {items: [{op, productId, quantity}]}
+        // op is "add" (default), "set" or "remove"; the whole batch succeeds or nothing changes
+        void batch(HttpExchange exchange, Router.Request request) throws IOException {
+            ShoppingCart cart = getSessionCart(exchange);
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+
+            CartBatchRequest batch;
+            try {
+                batch = gson.fromJson(body, CartBatchRequest.class);
+            } catch (JsonParseException e) {
+                sendJsonResponse(exchange, 400, Map.of("error", "Invalid JSON body"));
+                return;
+            }
+            if (batch == null || batch.items == null || batch.items.isEmpty()) {
+                sendJsonResponse(exchange, 400, Map.of("error", "items must be a non-empty list"));
+                return;
+            }
 
-            } else if ("DELETE".equals(method)) {
-                String[] parts = path.split("/");
-                if (parts.length > 3) {
-                    String productId = parts[3];
-                    System.out.println("Removing from cart: " + productId);
-                    cart.removeItem(productId);
+            List<ShoppingCart.CartChange> changes = new ArrayList<>(batch.items.size());
+            for (CartBatchRequest.Line line : batch.items) {
+                Product product = line.productId == null ? null : catalog.getProductById(line.productId);
+                if (product == null) {
+                    sendJsonResponse(exchange, 404, Map.of("error", "Product not found", "productId", String.valueOf(line.productId)));
+                    return;
+                }
+                // Bad ops and quantities become a 400 through the router
+                changes.add(new ShoppingCart.CartChange(line.op(), product, line.quantity == null ? 1 : line.quantity));
+            }
+
+            synchronized (cart) {
+                try {
+                    cart.applyChanges(changes);
                     sendJsonResponse(exchange, 200, cart.getItems());
-                } else {
-                    sendJsonResponse(exchange, 400, Map.of("error", "Product ID required"));
+                } catch (InsufficientStockException e) {
+                    log.debug("Cart batch rejected: {}", e.getMessage());
+                    Map<String, Object> error = new HashMap<>();
+                    error.put("error", e.getMessage());
+                    error.put("productId", e.getProductId());
+                    error.put("requested", e.getRequested());
+                    error.put("available", e.getAvailable());
+                    sendJsonResponse(exchange, 409, error);
                 }
             }
         }
+
+        // DELETE /api/cart/{productId}
+        void remove(HttpExchange exchange, Router.Request request) throws IOException {
+            ShoppingCart cart = getSessionCart(exchange);
+            String productId = request.path("productId");
+            log.debug("Removing from cart: {}", productId);
+
+            synchronized (cart) {
+                cart.removeItem(productId);
+                sendJsonResponse(exchange, 200, cart.getItems());
+            }
+        }
     }
 
 
-    static class OrderHandler implements HttpHandler {
-        @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                enableCORS(exchange);
-                exchange.sendResponseHeaders(204, -1);
-                return;
+    // Body of POST /api/cart/batch
+    static class CartBatchRequest {
+        List<Line> items;
+
+        static class Line {
+            String op;
+            String productId;
+            Integer quantity;
+
+            ShoppingCart.CartChange.Op op() {
+                if (op == null || op.isEmpty()) return ShoppingCart.CartChange.Op.ADD;
+                try {
+                    return ShoppingCart.CartChange.Op.valueOf(op.trim().toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unknown cart operation: " + op);
+                }
             }
+        }
+    }
 
-            String path = exchange.getRequestURI().getPath();
-            String method = exchange.getRequestMethod();
-            System.out.println("Order request: " + method + " " + path);
-
-            //Handle order history requests
-            if ("GET".equals(method) && path.startsWith("/api/orders/history/")) {
-                String[] parts = path.split("/");
-                if (parts.length > 4) {
-                    String email = java.net.URLDecoder.decode(parts[4], StandardCharsets.UTF_8);
-                    System.out.println("Fetching order history for: " + email);
-
-                    try {
-                        List<Map<String, Object>> orderHistory = getOrderHistoryForCustomer(email);
-                        sendJsonResponse(exchange, 200, orderHistory);
-                    } catch (Exception e) {
-                        System.err.println("Error fetching order history: " + e.getMessage());
-                        e.printStackTrace();
-                        sendJsonResponse(exchange, 500, Map.of("error", "Failed to fetch order history"));
-                    }
+    static class OrderHandler {
+        // GET /api/orders/history/{email}
+        void history(HttpExchange exchange, Router.Request request) throws IOException {
+            String email = request.path("email");
+            log.debug("Fetching order history for: {}", email);
+
+            try {
+                sendOrderHistoryForCustomer(exchange, email);
+            } catch (Exception e) {
+                log.error("Error fetching order history: {}", e.getMessage(), e);
+                // Only possible to report an error if streaming hasn't started
+                if (exchange.getResponseCode() == -1) {
+                    sendJsonResponse(exchange, 500, Map.of("error", "Failed to fetch order history"));
+                } else {
+                    exchange.close();
                 }
-                return;
             }
+        }
 
-            if ("POST".equals(method) && path.startsWith("/api/orders")) {
-                ShoppingCart cart = getSessionCart(exchange);
+        // POST /api/orders {customerData, paymentMethod}
+        void checkout(HttpExchange exchange, Router.Request request) throws IOException {
+            ShoppingCart cart = getSessionCart(exchange);
 
-                String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
-                System.out.println("Checkout request body: " + body);
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            log.debug("Checkout request body: {}", body);
 
-                try {
-                    Map<String, Object> request = gson.fromJson(body, Map.class);
+            try {
+                Map<String, Object> data = gson.fromJson(body, Map.class);
 
-                    Map<String, String> customerData = (Map<String, String>) request.get("customerData");
-                    String paymentMethodType = (String) request.get("paymentMethod");
+                Map<String, String> customerData = (Map<String, String>) data.get("customerData");
+                String paymentMethodType = (String) data.get("paymentMethod");
 
-                    System.out.println("Processing order for: " + customerData.get("name"));
+                log.debug("Processing order for: {}", customerData.get("name"));
 
-                    CustomerAccount customer = new CustomerAccount(
-                            customerData.get("email"),
-                            "temp_password",
-                            customerData.get("name"),
-                            customerData.get("email"),
-                            customerData.get("phone"),
-                            customerData.get("address")
-                    );
+                CustomerAccount customer = new CustomerAccount(
+                        customerData.get("email"),
+                        "temp_password",
+                        customerData.get("name"),
+                        customerData.get("email"),
+                        customerData.get("phone"),
+                        customerData.get("address")
+                );
 
-                    PaymentMethod paymentMethod = new Creditcard();
+                PaymentMethod paymentMethod = new Creditcard();
 
-                    OrderProcessor processor = new OrderProcessor(inventory);
-                    Invoice invoice;
+                OrderProcessor processor = new OrderProcessor(inventory);
+                Invoice invoice;
 
-                    try {
+                try {
+                    synchronized (cart) {
                         invoice = processor.process(cart, customer, paymentMethod);
-
-                        // Save order to database
-                        saveOrderToDatabase(invoice);
-
-                        Map<String, Object> response = new HashMap<>();
-                        response.put("orderId", invoice.getOrder().getOrderId());
-                        response.put("trackingNumber", invoice.getShipment().getTrackingNumber());
-                        response.put("total", invoice.getOrder().getTotal());
-                        response.put("success", true);
-
-                        System.out.println("Order completed: " + invoice.getOrder().getOrderId());
-
-                        sendJsonResponse(exchange, 200, response);
-
-                        String sessionId = exchange.getRemoteAddress().toString();
-                        sessionCarts.remove(sessionId);
-
-                    } catch (InsufficientStockException e) {
-                        System.out.println("Order failed - insufficient stock: " + e.getMessage());
-                        sendJsonResponse(exchange, 400, Map.of(
-                                "error", "Insufficient stock: " + e.getMessage(),
-                                "success", false
-                        ));
-                    } catch (PaymentProcessException e) {
-                        System.out.println("Order failed - payment error: " + e.getMessage());
-                        sendJsonResponse(exchange, 400, Map.of(
-                                "error", "Payment failed: " + e.getMessage(),
-                                "success", false
-                        ));
                     }
 
-                } catch (Exception e) {
-                    System.err.println("Error processing order: " + e.getMessage());
-                    e.printStackTrace();
-                    sendJsonResponse(exchange, 500, Map.of(
-                            "error", "Server error: " + e.getMessage(),
+                    // Save order to database
+                    saveOrderToDatabase(invoice);
+
+                    Map<String, Object> response = new HashMap<>();
+                    response.put("orderId", invoice.getOrder().getOrderId());
+                    response.put("trackingNumber", invoice.getShipment().getTrackingNumber());
+                    response.put("total", invoice.getOrder().getTotal());
+                    response.put("success", true);
+
+                    log.info("Order completed: {}", invoice.getOrder().getOrderId());
+
+                    sendJsonResponse(exchange, 200, response);
+
+                    sessions.endSession(exchange);
+
+                } catch (InsufficientStockException e) {
+                    log.info("Order failed - insufficient stock: {}", e.getMessage());
+                    sendJsonResponse(exchange, 400, Map.of(
+                            "error", "Insufficient stock: " + e.getMessage(),
+                            "success", false
+                    ));
+                } catch (PaymentProcessException e) {
+                    log.info("Order failed - payment error: {}", e.getMessage());
+                    sendJsonResponse(exchange, 400, Map.of(
+                            "error", "Payment failed: " + e.getMessage(),
                             "success", false
                     ));
                 }
-            } else {
-                sendJsonResponse(exchange, 404, Map.of("error", "Endpoint not found", "success", false));
+
+            } catch (Exception e) {
+                log.error("Error processing order: {}", e.getMessage(), e);
+                sendJsonResponse(exchange, 500, Map.of(
+                        "error", "Server error: " + e.getMessage(),
+                        "success", false
+                ));
             }
         }
 
@@ -366,44 +666,108 @@ public class Webserver {
                     ps.executeUpdate();
                 }
 
-                System.out.println("Order saved to database: " + order.getOrderId());
+                log.debug("Order saved to database: {}", order.getOrderId());
 
             } catch (Exception e) {
-                System.err.println("Error saving order to database: " + e.getMessage());
-                e.printStackTrace();
+                log.error("Error saving order to database: {}", e.getMessage(), e);
             }
         }
 
-        // NEW: Get order history for customer
-        private List<Map<String, Object>> getOrderHistoryForCustomer(String email) {
-            List<Map<String, Object>> orders = new ArrayList<>();
-
-            try {
-                String query = "SELECT o.*, s.tracking_number FROM orders o " +
-                        "LEFT JOIN shipments s ON o.order_id = s.order_id " +
-                        "WHERE o.customer_username = ? ORDER BY o.order_date DESC";
-
-                try (PreparedStatement ps = DatabaseConnection.getInstance().getConnection().prepareStatement(query)) {
-                    ps.setString(1, email);
-                    ResultSet rs = ps.executeQuery();
-
-                    while (rs.next()) {
-                        Map<String, Object> order = new HashMap<>();
-                        order.put("orderId", rs.getString("order_id"));
-                        order.put("orderDate", rs.getString("order_date"));
-                        order.put("total", rs.getDouble("total"));
-                        order.put("status", rs.getString("status"));
-                        order.put("trackingNumber", rs.getString("tracking_number"));
-                        orders.add(order);
-                    }
+        // Streams the order history for a customer row by row
+        private void sendOrderHistoryForCustomer(HttpExchange exchange, String email) throws IOException, SQLException {
+            String query = "SELECT o.*, s.tracking_number FROM orders o " +
+                    "LEFT JOIN shipments s ON o.order_id = s.order_id " +
+                    "WHERE o.customer_username = ? ORDER BY o.order_date DESC";
+
+            try (PreparedStatement ps = DatabaseConnection.getInstance().getConnection().prepareStatement(query)) {
+                ps.setString(1, email);
+                try (ResultSet rs = ps.executeQuery()) {
+                    sendStreamingJsonResponse(exchange, 200, out -> {
+                        out.beginArray();
+                        try {
+                            while (rs.next()) {
+                                out.beginObject();
+                                out.name("orderId").value(rs.getString("order_id"));
+                                out.name("orderDate").value(rs.getString("order_date"));
+                                out.name("total").value(rs.getDouble("total"));
+                                out.name("status").value(rs.getString("status"));
+                                out.name("trackingNumber").value(rs.getString("tracking_number"));
+                                out.endObject();
+                            }
+                        } catch (SQLException e) {
+                            throw new IOException("Error reading order history", e);
+                        }
+                        out.endArray();
+                    });
                 }
+            }
+        }
+    }
 
-            } catch (Exception e) {
-                System.err.println("Error fetching order history: " + e.getMessage());
-                e.printStackTrace();
+    static class MetricsHandler {
+        // GET /api/metrics (Prometheus text format)
+        void scrape(HttpExchange exchange, Router.Request request) throws IOException {
+            PrometheusText out = new PrometheusText();
+            metrics.writeTo(out);
+            writeServerMetrics(out);
+            writeJvmMetrics(out);
+
+            byte[] body = out.toString().getBytes(StandardCharsets.UTF_8);
+            String encoding = compressor.negotiate(exchange.getRequestHeaders().getFirst("Accept-Encoding"), body.length);
+            if (encoding != null) {
+                body = compressor.compress(body, encoding);
+            }
+            writeBody(exchange, 200, body, encoding, PrometheusText.CONTENT_TYPE);
+        }
+
+        private void writeServerMetrics(PrometheusText out) {
+            out.gauge("shop_executor_active", "Requests running on the request executor.", requestExecutor.getActiveCount());
+            out.gauge("shop_executor_queue_depth", "Requests waiting for an executor slot.", requestExecutor.getQueueDepth());
+            out.counter("shop_executor_completed_total", "Requests completed by the executor.", requestExecutor.getCompletedCount());
+            out.counter("shop_executor_rejected_total", "Requests rejected with 503 because the queue was full.", requestExecutor.getRejectedCount());
+
+            out.gauge("shop_sessions", "Active cart sessions.", sessions.getSessionCount());
+            out.gauge("shop_session_cart_items", "Line items across all session carts.", sessions.getCartItemCount());
+            out.gauge("shop_session_memory_bytes", "Estimated heap used by sessions and carts.", sessions.getEstimatedMemoryBytes());
+            out.counter("shop_sessions_created_total", "Sessions started.", sessions.getCreatedCount());
+            out.counter("shop_sessions_evicted_total", "Sessions removed after idling past the TTL.", sessions.getEvictedCount());
+            reservationExpiry.writeTo(out);
+            ProductWriteBehind.getInstance().writeTo(out);
+
+            out.counter("shop_compression_responses_total", "Responses compressed.", compressor.getCompressedCount());
+            out.counter("shop_compression_skipped_total", "Responses sent uncompressed.", compressor.getSkippedCount());
+            out.counter("shop_compression_bytes_in_total", "Bytes before compression.", compressor.getBytesIn());
+            out.counter("shop_compression_bytes_out_total", "Bytes after compression.", compressor.getBytesOut());
+            out.counter("shop_compression_seconds_total", "Time spent compressing responses.", compressor.getCompressNanos() / 1e9);
+
+            AsyncLogWriter logWriter = AsyncLogWriter.getInstance();
+            out.gauge("shop_log_queued", "Log events waiting to be written.", logWriter.getQueuedCount());
+            out.counter("shop_log_dropped_total", "Log events dropped because the buffer was full.", logWriter.getDroppedCount());
+
+            out.gauge("shop_catalog_version", "Current product catalog version.", catalog.getVersion());
+            if (catalog.getCache() != null) {
+                catalog.getCache().writeTo(out);
+            }
+        }
+
+        private void writeJvmMetrics(PrometheusText out) {
+            MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+            out.gauge("jvm_memory_heap_used_bytes", "Heap in use.", heap.getUsed());
+            out.gauge("jvm_memory_heap_committed_bytes", "Heap committed by the JVM.", heap.getCommitted());
+            out.gauge("jvm_memory_heap_max_bytes", "Maximum heap size.", heap.getMax());
+
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                out.counter("jvm_gc_collections_total", "Garbage collections, by collector.", gc.getCollectionCount(), "gc", gc.getName());
+            }
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                out.counter("jvm_gc_collection_seconds_total", "Time spent in garbage collection, by collector.",
+                        gc.getCollectionTime() / 1000.0, "gc", gc.getName());
             }
 
-            return orders;
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            out.gauge("jvm_threads_live", "Live platform threads.", threads.getThreadCount());
+            out.gauge("jvm_threads_daemon", "Live daemon threads.", threads.getDaemonThreadCount());
+            out.gauge("jvm_threads_peak", "Peak live platform threads.", threads.getPeakThreadCount());
         }
     }
-}
\ No newline at end of file
+}
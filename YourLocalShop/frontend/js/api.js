@@ -1,14 +1,27 @@
 const API_BASE_URL = 'http://localhost:8080/api';
+const SESSION_HEADER = 'X-Session-Token';
 
 class API {
     // Helper method to handle fetch errors
     static async fetchWithErrorHandling(url, options = {}) {
         try {
             console.log('Fetching:', url, options.method || 'GET');
+
+            // Send the session token so the server finds our cart
+            const sessionToken = localStorage.getItem('sessionToken');
+            if (sessionToken) {
+                options.headers = { ...(options.headers || {}), [SESSION_HEADER]: sessionToken };
+            }
+
             const response = await fetch(url, options);
 
             console.log('Response status:', response.status);
 
+            const newToken = response.headers.get(SESSION_HEADER);
+            if (newToken) {
+                localStorage.setItem('sessionToken', newToken);
+            }
+
             if (!response.ok) {
                 const errorText = await response.text();
                 console.error('Server error:', errorText);
@@ -41,6 +54,30 @@ class API {
         return await this.fetchWithErrorHandling(`${API_BASE_URL}/products?category=${category}`);
     }
 
+    // Ranked text search: { query, total, items }
+    static async searchProductsText(q, limit = 20) {
+        const query = new URLSearchParams({ q, limit });
+        return await this.fetchWithErrorHandling(`${API_BASE_URL}/products/search?${query}`);
+    }
+
+    // Type-ahead: { prefix, items: [{ id, name, unitsSold, stock }] }; rank is 'popularity' or 'stock'
+    static async suggestProducts(prefix, rank = 'popularity', limit = 10) {
+        const query = new URLSearchParams({ prefix, rank, limit });
+        return await this.fetchWithErrorHandling(`${API_BASE_URL}/products/suggest?${query}`);
+    }
+
+    // { categories: [{ name, count }], total }
+    static async getCategoryFacets() {
+        return await this.fetchWithErrorHandling(`${API_BASE_URL}/products/facets`);
+    }
+
+    // Paged listing: { limit, cursor, sort, order, category, minPrice, maxPrice, inStock, discounted }
+    // Returns { items, total, nextCursor }
+    static async getProductsPage(params = {}) {
+        const query = new URLSearchParams({ limit: 20, ...params });
+        return await this.fetchWithErrorHandling(`${API_BASE_URL}/products?${query}`);
+    }
+
     // Cart
     static async addToCart(productId, quantity) {
         return await this.fetchWithErrorHandling(`${API_BASE_URL}/cart`, {
@@ -53,6 +90,18 @@ class API {
         });
     }
 
+    // changes: [{ op: 'add' | 'set' | 'remove', productId, quantity }]
+    static async updateCartBatch(changes) {
+        return await this.fetchWithErrorHandling(`${API_BASE_URL}/cart/batch`, {
+            method: 'POST',
+            headers: {
+                'Content-Type': 'application/json',
+                'Accept': 'application/json'
+            },
+            body: JSON.stringify({ items: changes })
+        });
+    }
+
     static async getCart() {
         return await this.fetchWithErrorHandling(`${API_BASE_URL}/cart`);
     }